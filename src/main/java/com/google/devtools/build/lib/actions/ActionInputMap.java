@@ -17,7 +17,6 @@ import static java.util.stream.Collectors.toList;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.MoreObjects;
-import com.google.common.base.Objects;
 import com.google.common.base.Preconditions;
 import java.util.Arrays;
 import javax.annotation.Nullable;
@@ -28,8 +27,13 @@ import javax.annotation.Nullable;
  * <p>Allows {@link FileArtifactValue} lookups by exec path or {@link ActionInput}. <i>Also</i>
  * allows {@link ActionInput} to be looked up by exec path.
  *
- * <p>This class implements a closed hash-map with the "links" of each bucket's linked list being
- * stored in a flat array to avoid memory allocations and garbage collection.
+ * <p>This class implements an open-addressing hash map with linear probing. The entries are stored
+ * in flat arrays in insertion order and the hash table only holds indexes into them, to avoid
+ * memory allocations and garbage collection.
+ *
+ * <p>Keeping the table at most half full trades memory for shorter probes: the table has 2 to 4
+ * int slots per entry of capacity, where a chained table needs 1 to 2 plus a next pointer per
+ * entry. For an action with 100k inputs that is roughly 0.5 MB more per map.
  *
  * <p>This class is thread-compatible.
  */
@@ -38,13 +42,17 @@ public final class ActionInputMap implements MetadataProvider, ActionInputMapSin
   int size;
 
   /**
-   * The hash buckets. Values are indexes into the four arrays. The number of buckets is always the
-   * smallest power of 2 that is larger than the number of elements.
+   * The hash table. Values are indexes into the entry arrays below, or -1 for empty slots. The
+   * table size is always a power of 2 that is at least twice the capacity of the entry arrays, so
+   * that it is at most half full and probe sequences stay short.
    */
   private int[] table;
 
-  /** Flat array of the next pointers that make up the linked list behind each hash bucket. */
-  private int[] next;
+  /**
+   * The hash codes of the execPathStrings in {@link #paths}. Comparing against these first means
+   * that probing past a colliding entry does not need to load its {@link String}.
+   */
+  private int[] hashes;
 
   /**
    * The {@link ActionInput} keys stored in this map. For performance reasons, they need to be
@@ -67,32 +75,34 @@ public final class ActionInputMap implements MetadataProvider, ActionInputMapSin
 
   public ActionInputMap(int sizeHint) {
     sizeHint = Math.max(1, sizeHint);
-    int tableSize = Integer.highestOneBit(sizeHint) << 1;
     size = 0;
 
-    table = new int[tableSize];
+    table = new int[tableSizeFor(sizeHint)];
     Arrays.fill(table, -1);
 
-    next = new int[sizeHint];
+    hashes = new int[sizeHint];
     keys = new Object[sizeHint];
     paths = new Object[sizeHint];
     values = new Object[sizeHint];
   }
 
+  /** Returns the smallest power of 2 that is at least twice {@code capacity}. */
+  private static int tableSizeFor(int capacity) {
+    return Integer.highestOneBit(capacity * 2 - 1) << 1;
+  }
+
   private int getIndex(String execPathString) {
     int hashCode = execPathString.hashCode();
-    int index = hashCode & (table.length - 1);
-    if (table[index] == -1) {
-      return -1;
-    }
-    index = table[index];
-    while (index != -1) {
-      if (hashCode == paths[index].hashCode() && execPathString.equals(paths[index])) {
+    int mask = table.length - 1;
+    for (int slot = hashCode & mask; ; slot = (slot + 1) & mask) {
+      int index = table[slot];
+      if (index == -1) {
+        return -1;
+      }
+      if (hashCode == hashes[index] && execPathString.equals(paths[index])) {
         return index;
       }
-      index = next[index];
     }
-    return -1;
   }
 
   @Nullable
@@ -131,23 +141,18 @@ public final class ActionInputMap implements MetadataProvider, ActionInputMapSin
     }
     String path = input.getExecPathString();
     int hashCode = path.hashCode();
-    int index = hashCode & (table.length - 1);
-    int nextIndex = table[index];
-    if (nextIndex == -1) {
-      table[index] = size;
-    } else {
-      do {
-        index = nextIndex;
-        if (hashCode == paths[index].hashCode() && Objects.equal(path, paths[index])) {
-          return false;
-        }
-        nextIndex = next[index];
-      } while (nextIndex != -1);
-      next[index] = size;
+    int mask = table.length - 1;
+    int slot = hashCode & mask;
+    for (int index = table[slot]; index != -1; index = table[slot]) {
+      if (hashCode == hashes[index] && path.equals(paths[index])) {
+        return false;
+      }
+      slot = (slot + 1) & mask;
     }
-    next[size] = -1;
+    table[slot] = size;
+    hashes[size] = hashCode;
     keys[size] = input;
-    paths[size] = input.getExecPathString();
+    paths[size] = path;
     values[size] = metadata;
     size++;
     return true;
@@ -156,7 +161,6 @@ public final class ActionInputMap implements MetadataProvider, ActionInputMapSin
   @VisibleForTesting
   void clear() {
     Arrays.fill(table, -1);
-    Arrays.fill(next, -1);
     Arrays.fill(keys, null);
     Arrays.fill(paths, null);
     Arrays.fill(values, null);
@@ -165,21 +169,25 @@ public final class ActionInputMap implements MetadataProvider, ActionInputMapSin
 
   private void resize() {
     // Resize the data containers.
-    keys = Arrays.copyOf(keys, size * 2);
-    paths = Arrays.copyOf(paths, size * 2);
-    values = Arrays.copyOf(values, size * 2);
-    next = Arrays.copyOf(next, size * 2);
-
-    // Resize and recreate the table and links if necessary. We can take shortcuts here as we know
-    // there are no duplicate keys.
-    if (table.length < size * 2) {
-      table = new int[table.length * 2];
-      next = new int[size * 2];
+    int capacity = size * 2;
+    keys = Arrays.copyOf(keys, capacity);
+    paths = Arrays.copyOf(paths, capacity);
+    values = Arrays.copyOf(values, capacity);
+    hashes = Arrays.copyOf(hashes, capacity);
+
+    // Resize and refill the table if necessary. We can take shortcuts here as we know there are no
+    // duplicate keys, and the stored hashes save us from recomputing or loading the paths.
+    int tableSize = tableSizeFor(capacity);
+    if (table.length < tableSize) {
+      table = new int[tableSize];
       Arrays.fill(table, -1);
+      int mask = tableSize - 1;
       for (int i = 0; i < size; i++) {
-        int index = paths[i].hashCode() & (table.length - 1);
-        next[i] = table[index];
-        table[index] = i;
+        int slot = hashes[i] & mask;
+        while (table[slot] != -1) {
+          slot = (slot + 1) & mask;
+        }
+        table[slot] = i;
       }
     }
   }
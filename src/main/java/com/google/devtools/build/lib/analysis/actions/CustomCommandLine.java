@@ -373,6 +373,9 @@ public final class CustomCommandLine extends CommandLine {
       @Override
       public int eval(List<Object> arguments, int argi, ImmutableList.Builder<String> builder)
           throws CommandLineExpansionException, InterruptedException {
+        if (!hasFormatEach && !hasJoinWith) {
+          return evalDirectly(arguments, argi, builder);
+        }
         final List<String> mutatedValues;
         CommandLineItem.MapFn<Object> mapFn =
             hasMapEach ? (CommandLineItem.MapFn<Object>) arguments.get(argi++) : null;
@@ -428,6 +431,55 @@ public final class CustomCommandLine extends CommandLine {
         return argi;
       }
 
+      /**
+       * Variant of {@link #eval} for vectors that are neither formatted nor joined, which is the
+       * common case for large inputs such as the objects of a link. Every value ends up as its own
+       * argument, so values are added to {@code builder} as they are expanded instead of being
+       * collected in an intermediate list first.
+       */
+      @SuppressWarnings("unchecked")
+      private int evalDirectly(
+          List<Object> arguments, int argi, ImmutableList.Builder<String> builder)
+          throws CommandLineExpansionException, InterruptedException {
+        CommandLineItem.MapFn<Object> mapFn =
+            hasMapEach ? (CommandLineItem.MapFn<Object>) arguments.get(argi++) : null;
+        // The values come before the beforeEach string in the argument list, but it is needed to
+        // emit them, so look it up first.
+        int valuesEnd = isNestedSet ? argi + 1 : argi + 1 + (Integer) arguments.get(argi);
+        Consumer<String> args;
+        if (hasBeforeEach) {
+          String beforeEach = (String) arguments.get(valuesEnd);
+          args =
+              value -> {
+                builder.add(beforeEach);
+                builder.add(value);
+              };
+        } else {
+          args = builder::add;
+        }
+        if (isNestedSet) {
+          NestedSet<Object> values = (NestedSet<Object>) arguments.get(argi);
+          for (Object object : values.toList()) {
+            expandValue(mapFn, object, args);
+          }
+        } else {
+          for (int i = argi + 1; i < valuesEnd; ++i) {
+            expandValue(mapFn, arguments.get(i), args);
+          }
+        }
+        return hasBeforeEach ? valuesEnd + 1 : valuesEnd;
+      }
+
+      private static void expandValue(
+          @Nullable CommandLineItem.MapFn<Object> mapFn, Object value, Consumer<String> args)
+          throws CommandLineExpansionException, InterruptedException {
+        if (mapFn != null) {
+          mapFn.expandToCommandLine(value, args);
+        } else {
+          args.accept(CommandLineItem.expandToCommandLine(value));
+        }
+      }
+
       @SuppressWarnings("unchecked")
       @Override
       public int addToFingerprint(
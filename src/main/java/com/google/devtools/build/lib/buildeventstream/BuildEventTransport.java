@@ -22,7 +22,8 @@ import javax.annotation.concurrent.ThreadSafe;
 /**
  * Transport interface for the build event protocol.
  *
- * <p>All implementations need to be thread-safe. All methods are expected to return quickly.
+ * <p>All implementations need to be thread-safe. All methods are expected to return quickly, with
+ * the exception of back-pressure in {@link #sendBuildEvent}.
  *
  * <p>Notice that this interface does not provide any error handling API. A transport may choose
  * to log interesting errors to the command line and/or abort the whole build.
@@ -35,8 +36,14 @@ public interface BuildEventTransport {
   String name();
 
   /**
-   * Writes a build event to an endpoint. This method will always return quickly and will not wait
-   * for the write to complete.
+   * Writes a build event to an endpoint. This method will not wait for the write to complete.
+   * Usually it returns quickly, but a transport that bounds the amount of data it buffers may
+   * block until enough earlier events are written out.
+   *
+   * <p>Callers may hold locks while calling this method (the {@code BuildEventStreamer} posts some
+   * events under its monitor), and a blocked call stalls all other event posting meanwhile.
+   * Implementations must therefore only ever wait for progress of their own, independent writer,
+   * never for anything that could need a lock held by the caller.
    *
    * <p>In case the transport is in error, this method still needs to be able to accept build
    * events. It may choose to ignore them, though.
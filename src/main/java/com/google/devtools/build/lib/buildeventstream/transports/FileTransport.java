@@ -51,10 +51,19 @@ import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import javax.annotation.concurrent.GuardedBy;
 import javax.annotation.concurrent.ThreadSafe;
 
 /**
- * Non-blocking file transport.
+ * File transport that writes events on a dedicated thread.
+ *
+ * <p>{@link #sendBuildEvent} does not wait for writes to complete. If the {@code
+ * EXPERIMENTAL_BEP_FILE_MAX_BUFFERED_BYTES} system property is set to a positive value, it blocks
+ * while at least that many bytes of converted events are waiting to be written, so that a slow
+ * output file applies back-pressure instead of growing the heap without bound. Note that {@code
+ * BuildEventStreamer} posts some events while holding its monitor, so while this transport blocks,
+ * no other thread can post build events to any transport either. It only waits for its own writer
+ * thread, which never needs the streamer's monitor, so this stalls but cannot deadlock.
  *
  * <p>Implementors of this class need to implement {@code #sendBuildEvent(BuildEvent)} which
  * serializes the build event and writes it to a file.
@@ -95,12 +104,24 @@ abstract class FileTransport implements BuildEventTransport {
         Duration.ofMillis(
             Long.parseLong(System.getProperty("EXPERIMENTAL_BEP_FILE_FLUSH_MILLIS", "250")));
 
+    /**
+     * Upper bound on the serialized size of events that have been converted to protos but not yet
+     * written out. Once it is reached, {@link #awaitBufferCapacity} blocks the producer until the
+     * writer thread catches up. A non-positive value, the default, disables the limit.
+     */
+    private static final long DEFAULT_MAX_BUFFERED_BYTES =
+        Long.parseLong(System.getProperty("EXPERIMENTAL_BEP_FILE_MAX_BUFFERED_BYTES", "0"));
+
     private final Thread writerThread;
     private final BufferedOutputStream out;
     private final Function<BuildEventStreamProtos.BuildEvent, byte[]> serializeFunc;
     private final BuildEventArtifactUploader uploader;
     private final AtomicBoolean isClosed = new AtomicBoolean();
     private final SettableFuture<Void> closeFuture = SettableFuture.create();
+    private final long maxBufferedBytes;
+
+    @GuardedBy("this")
+    private long bufferedBytes = 0;
 
     @VisibleForTesting
     final BlockingQueue<ListenableFuture<BuildEventStreamProtos.BuildEvent>> pendingWrites =
@@ -113,9 +134,20 @@ abstract class FileTransport implements BuildEventTransport {
         Function<BuildEventStreamProtos.BuildEvent, byte[]> serializeFunc,
         BuildEventArtifactUploader uploader,
         ScheduledExecutorService timeoutExecutor) {
+      this(outputStream, serializeFunc, uploader, timeoutExecutor, DEFAULT_MAX_BUFFERED_BYTES);
+    }
+
+    @VisibleForTesting
+    SequentialWriter(
+        BufferedOutputStream outputStream,
+        Function<BuildEventStreamProtos.BuildEvent, byte[]> serializeFunc,
+        BuildEventArtifactUploader uploader,
+        ScheduledExecutorService timeoutExecutor,
+        long maxBufferedBytes) {
       checkNotNull(uploader);
 
       this.out = checkNotNull(outputStream);
+      this.maxBufferedBytes = maxBufferedBytes;
       this.writerThread = new Thread(this, "bep-local-writer");
       this.serializeFunc = checkNotNull(serializeFunc);
       this.uploader = checkNotNull(uploader);
@@ -135,6 +167,7 @@ abstract class FileTransport implements BuildEventTransport {
             if (buildEvent != null) {
               byte[] serialized = serializeFunc.apply(buildEvent);
               out.write(serialized);
+              releaseBufferedBytes(buildEvent.getSerializedSize());
             }
           }
           Instant now = Instant.now();
@@ -162,9 +195,61 @@ abstract class FileTransport implements BuildEventTransport {
           timeoutExecutor.shutdown();
         }
         closeFuture.set(null);
+        wakeUpProducers();
       }
     }
 
+    /**
+     * Accounts for an event that has been converted to a proto and is now held in memory until the
+     * writer thread gets to it.
+     */
+    void onEventReady(BuildEventStreamProtos.BuildEvent buildEvent) {
+      if (maxBufferedBytes <= 0 || buildEvent == null) {
+        return;
+      }
+      synchronized (this) {
+        bufferedBytes += buildEvent.getSerializedSize();
+      }
+    }
+
+    /**
+     * Blocks until the amount of buffered, not yet written event data drops below the configured
+     * limit, or the writer is closed. This applies back-pressure to producers that outpace the
+     * output file, which would otherwise grow {@link #pendingWrites} without bound.
+     */
+    void awaitBufferCapacity() throws InterruptedException {
+      if (maxBufferedBytes <= 0) {
+        return;
+      }
+      synchronized (this) {
+        while (bufferedBytes >= maxBufferedBytes && !closeFuture.isDone()) {
+          wait();
+        }
+      }
+    }
+
+    private void releaseBufferedBytes(int size) {
+      if (maxBufferedBytes <= 0) {
+        return;
+      }
+      synchronized (this) {
+        boolean wasFull = bufferedBytes >= maxBufferedBytes;
+        bufferedBytes -= size;
+        if (wasFull && bufferedBytes < maxBufferedBytes) {
+          notifyAll();
+        }
+      }
+    }
+
+    private synchronized void wakeUpProducers() {
+      notifyAll();
+    }
+
+    @VisibleForTesting
+    synchronized long getBufferedBytes() {
+      return bufferedBytes;
+    }
+
     private void exitFailure(Throwable e) {
       final String message;
       // Print a more useful error message when the upload times out.
@@ -186,6 +271,7 @@ abstract class FileTransport implements BuildEventTransport {
                       .build()),
               e));
       pendingWrites.clear();
+      wakeUpProducers();
       logger.atSevere().withCause(e).log(message);
     }
 
@@ -254,6 +340,14 @@ abstract class FileTransport implements BuildEventTransport {
     if (writer.isClosed.get()) {
       return;
     }
+    boolean interrupted = false;
+    try {
+      writer.awaitBufferCapacity();
+    } catch (InterruptedException e) {
+      // Don't drop the event; just give up on waiting for the writer to catch up. The interrupt is
+      // restored only once the event is queued, since the conversion gives up when interrupted.
+      interrupted = true;
+    }
     try {
       if (!writer.pendingWrites.add(asStreamProto(event, namer))) {
         logger.atSevere().log("Failed to add BEP event to the write queue");
@@ -261,6 +355,10 @@ abstract class FileTransport implements BuildEventTransport {
     } catch (RejectedExecutionException e) {
       // If early shutdown races with this event, log but otherwise ignore.
       logger.atWarning().withCause(e).log("Event upload started after shutdown");
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
     }
   }
 
@@ -305,7 +403,9 @@ abstract class FileTransport implements BuildEventTransport {
                 }
               };
           try {
-            return event.asStreamProto(context);
+            BuildEventStreamProtos.BuildEvent buildEvent = event.asStreamProto(context);
+            writer.onEventReady(buildEvent);
+            return buildEvent;
           } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
             return null;
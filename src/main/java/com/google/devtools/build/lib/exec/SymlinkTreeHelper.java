@@ -235,29 +235,68 @@ public final class SymlinkTreeHelper {
       // if (!stat.isExecutable() || !stat.isReadable()) {
       //   at.chmod(stat.getMods() | 0700);
       // }
-      for (Dirent dirent : at.readdir(Symlinks.FOLLOW)) {
-        String basename = dirent.getName();
-        Path next = at.getChild(basename);
-        if (symlinks.containsKey(basename)) {
-          Artifact value = symlinks.remove(basename);
-          if (value == null) {
-            if (dirent.getType() != Dirent.Type.FILE) {
+      syncDirectory(at, /*existing=*/ stat != null && stat.isDirectory());
+    }
+
+    /**
+     * Makes the directory at {@code at} match this node. If {@code existing} is false, the
+     * directory has just been created and is known to be empty, so it is not read back.
+     *
+     * <p>Entries are listed without following symlinks: the dirent type then tells us whether an
+     * entry is a symlink at all, so that unchanged symlinks only cost a single readlink, and new
+     * entries are created without probing for an existing one first. This keeps updating a large,
+     * mostly unchanged tree proportional to the number of changed entries in syscalls.
+     *
+     * <p>On file systems that don't report entry types, readdir stats each entry following
+     * symlinks, so a symlink shows up as {@code FILE}, {@code DIRECTORY} or {@code UNKNOWN}. Only a
+     * {@code SYMLINK} type is therefore trusted as is; see {@link #lstatType}.
+     */
+    private void syncDirectory(Path at, boolean existing) throws IOException {
+      if (existing) {
+        for (Dirent dirent : at.readdir(Symlinks.NOFOLLOW)) {
+          String basename = dirent.getName();
+          Path next = at.getChild(basename);
+          Dirent.Type type = dirent.getType();
+          if (symlinks.containsKey(basename)) {
+            Artifact value = symlinks.remove(basename);
+            if (value == null) {
+              if (type == Dirent.Type.UNKNOWN) {
+                type = lstatType(next);
+              }
+              if (type != Dirent.Type.FILE) {
+                next.deleteTree();
+                FileSystemUtils.createEmptyFile(next);
+              }
+              // For consistency with build-runfiles.cc, we don't truncate the file if one exists.
+            } else {
+              PathFragment target = value.getPath().asFragment();
+              if (type != Dirent.Type.SYMLINK) {
+                type = lstatType(next);
+              }
+              if (type != Dirent.Type.SYMLINK) {
+                next.deleteTree();
+                // TODO(ulfjack): On Windows, this call makes a copy rather than creating a symlink.
+                next.createSymbolicLink(target);
+              } else if (!next.readSymbolicLink().equals(target)) {
+                next.delete();
+                next.createSymbolicLink(target);
+              }
+            }
+          } else if (directories.containsKey(basename)) {
+            Directory nextDir = directories.remove(basename);
+            if (type != Dirent.Type.SYMLINK) {
+              // Directories are few compared to symlinks, so make sure this isn't a symlink to one.
+              type = lstatType(next);
+            }
+            boolean isDirectory = type == Dirent.Type.DIRECTORY;
+            if (!isDirectory) {
               next.deleteTree();
-              FileSystemUtils.createEmptyFile(next);
+              next.createDirectory();
             }
-            // For consistency with build-runfiles.cc, we don't truncate the file if one exists.
+            nextDir.syncDirectory(next, isDirectory);
           } else {
-            // TODO(ulfjack): On Windows, this call makes a copy rather than creating a symlink.
-            FileSystemUtils.ensureSymbolicLink(next, value.getPath().asFragment());
-          }
-        } else if (directories.containsKey(basename)) {
-          Directory nextDir = directories.remove(basename);
-          if (dirent.getType() != Dirent.Type.DIRECTORY) {
             next.deleteTree();
           }
-          nextDir.syncTreeRecursively(at.getChild(basename));
-        } else {
-          at.getChild(basename).deleteTree();
         }
       }
 
@@ -266,12 +305,32 @@ public final class SymlinkTreeHelper {
         if (entry.getValue() == null) {
           FileSystemUtils.createEmptyFile(next);
         } else {
-          FileSystemUtils.ensureSymbolicLink(next, entry.getValue().getPath().asFragment());
+          next.createSymbolicLink(entry.getValue().getPath().asFragment());
         }
       }
       for (Map.Entry<String, Directory> entry : directories.entrySet()) {
-        entry.getValue().syncTreeRecursively(at.getChild(entry.getKey()));
+        Path next = at.getChild(entry.getKey());
+        next.createDirectory();
+        entry.getValue().syncDirectory(next, /*existing=*/ false);
+      }
+    }
+
+    /**
+     * Returns the type of the entry at {@code path} without following symlinks, for when the type
+     * reported by readdir can't be trusted.
+     */
+    private static Dirent.Type lstatType(Path path) throws IOException {
+      FileStatus stat = path.statNullable(Symlinks.NOFOLLOW);
+      if (stat == null || stat.isSpecialFile()) {
+        return Dirent.Type.UNKNOWN;
+      } else if (stat.isSymbolicLink()) {
+        return Dirent.Type.SYMLINK;
+      } else if (stat.isFile()) {
+        return Dirent.Type.FILE;
+      } else if (stat.isDirectory()) {
+        return Dirent.Type.DIRECTORY;
       }
+      return Dirent.Type.UNKNOWN;
     }
   }
 }
@@ -15,10 +15,20 @@ package com.google.devtools.build.lib.packages;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableCollection;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.errorprone.annotations.CheckReturnValue;
+import java.nio.ByteBuffer;
 import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.SortedMap;
+import java.util.SortedSet;
 import javax.annotation.Nullable;
 
 /**
@@ -63,7 +73,16 @@ abstract class AttributeContainer {
 
   /** Returns a frozen AttributeContainer with the same attributes, and a compact representation. */
   @CheckReturnValue
-  abstract AttributeContainer freeze();
+  final AttributeContainer freeze() {
+    return freeze(/*deduper=*/ null);
+  }
+
+  /**
+   * Like {@link #freeze()}, but shares the internal state array and equal attribute values with
+   * other containers frozen through the same {@code deduper}.
+   */
+  @CheckReturnValue
+  abstract AttributeContainer freeze(@Nullable Deduper deduper);
 
   /** Returns an AttributeContainer for holding attributes of the given rule class. */
   static AttributeContainer newMutableInstance(RuleClass ruleClass) {
@@ -123,11 +142,11 @@ abstract class AttributeContainer {
     }
 
     @Override
-    public AttributeContainer freeze() {
+    AttributeContainer freeze(@Nullable Deduper deduper) {
       if (values.length < 126) {
-        return new Small(values, explicitAttrs);
+        return new Small(values, explicitAttrs, deduper);
       } else {
-        return new Large(values, explicitAttrs);
+        return new Large(values, explicitAttrs, deduper);
       }
     }
 
@@ -148,11 +167,116 @@ abstract class AttributeContainer {
     }
 
     @Override
-    final AttributeContainer freeze() {
+    final AttributeContainer freeze(@Nullable Deduper deduper) {
       return this;
     }
   }
 
+  /**
+   * Shares equal frozen state between the rules of a single package.
+   *
+   * <p>Rules of the same class in a package tend to set the same attributes, and often to the same
+   * values (tags, copts, visibility lists coming from macros or generated BUILD files). Without
+   * sharing, each rule holds its own copy of its state array and of every such value.
+   *
+   * <p>Only strings and immutable collections of the exact same class are shared, and only when
+   * they also iterate in the same order: {@code ImmutableMap} and {@code ImmutableSet} equality
+   * ignores order, but dict and set attributes preserve the order the user wrote them in. Sorted
+   * sets and maps must in addition have equal comparators, which their equality also ignores.
+   * Instances are not thread-safe and are meant to be dropped once the package is built.
+   */
+  static final class Deduper {
+    private final Map<ByteBuffer, byte[]> states = new HashMap<>();
+    private final Map<Object, Object> values = new HashMap<>();
+    private int sharedStates = 0;
+    private int sharedValues = 0;
+
+    byte[] dedupState(byte[] state) {
+      if (state.length == 0) {
+        return state;
+      }
+      byte[] canonical = states.putIfAbsent(ByteBuffer.wrap(state), state);
+      if (canonical == null) {
+        return state;
+      }
+      sharedStates++;
+      return canonical;
+    }
+
+    Object dedupValue(Object value) {
+      if (!(value instanceof String
+          || value instanceof ImmutableCollection
+          || value instanceof ImmutableMap)) {
+        return value;
+      }
+      Object canonical = values.putIfAbsent(value, value);
+      if (canonical == null
+          || canonical == value
+          || canonical.getClass() != value.getClass()
+          || !sameIterationOrder(canonical, value)) {
+        return value;
+      }
+      sharedValues++;
+      return canonical;
+    }
+
+    /** Returns how many state arrays were replaced by a previously seen equal one. */
+    int getSharedStateCount() {
+      return sharedStates;
+    }
+
+    /** Returns how many attribute values were replaced by a previously seen equal one. */
+    int getSharedValueCount() {
+      return sharedValues;
+    }
+
+    /**
+     * Returns whether two equal values also iterate identically and sort with the same comparator,
+     * including any maps or collections nested inside them.
+     */
+    private static boolean sameIterationOrder(Object a, Object b) {
+      if ((isSorted(a) || isSorted(b))
+          && (a.getClass() != b.getClass() || !Objects.equals(comparator(a), comparator(b)))) {
+        return false;
+      }
+      if (a instanceof Map && b instanceof Map) {
+        return sameIterationOrder(((Map<?, ?>) a).entrySet(), ((Map<?, ?>) b).entrySet());
+      }
+      if (a instanceof Map.Entry && b instanceof Map.Entry) {
+        Map.Entry<?, ?> entryA = (Map.Entry<?, ?>) a;
+        Map.Entry<?, ?> entryB = (Map.Entry<?, ?>) b;
+        return sameIterationOrder(entryA.getKey(), entryB.getKey())
+            && sameIterationOrder(entryA.getValue(), entryB.getValue());
+      }
+      if (a instanceof Iterable && b instanceof Iterable) {
+        Iterator<?> itA = ((Iterable<?>) a).iterator();
+        Iterator<?> itB = ((Iterable<?>) b).iterator();
+        while (itA.hasNext() && itB.hasNext()) {
+          if (!sameIterationOrder(itA.next(), itB.next())) {
+            return false;
+          }
+        }
+        return !itA.hasNext() && !itB.hasNext();
+      }
+      return Objects.equals(a, b);
+    }
+
+    private static boolean isSorted(Object value) {
+      return value instanceof SortedSet || value instanceof SortedMap;
+    }
+
+    @Nullable
+    private static Comparator<?> comparator(Object value) {
+      if (value instanceof SortedSet) {
+        return ((SortedSet<?>) value).comparator();
+      }
+      if (value instanceof SortedMap) {
+        return ((SortedMap<?, ?>) value).comparator();
+      }
+      return null;
+    }
+  }
+
   private static final byte[] EMPTY_STATE = {};
   private static final Object[] EMPTY_VALUES = {};
 
@@ -224,8 +348,9 @@ abstract class AttributeContainer {
      *
      * @param attrValues values for all attributes, null values are considered unset.
      * @param explicitAttrs holds explicit bit for each attribute index
+     * @param deduper if non-null, used to share equal state with other containers
      */
-    private Small(Object[] attrValues, BitSet explicitAttrs) {
+    private Small(Object[] attrValues, BitSet explicitAttrs, @Nullable Deduper deduper) {
       maxAttrCount = attrValues.length;
       int numSet = nonNullCount(attrValues);
       if (numSet == 0) {
@@ -234,7 +359,7 @@ abstract class AttributeContainer {
         return;
       }
       values = new Object[numSet];
-      state = new byte[numSet];
+      byte[] state = new byte[numSet];
       int index = 0;
       int attrIndex = -1;
       for (Object attrValue : attrValues) {
@@ -247,9 +372,10 @@ abstract class AttributeContainer {
           stateValue = (byte) (stateValue | 0x80);
         }
         state[index] = stateValue;
-        values[index] = attrValue;
+        values[index] = deduper != null ? deduper.dedupValue(attrValue) : attrValue;
         index += 1;
       }
+      this.state = deduper != null ? deduper.dedupState(state) : state;
     }
 
     /**
@@ -346,8 +472,9 @@ abstract class AttributeContainer {
      *
      * @param attrValues values for all attributes, null values are considered unset.
      * @param explicitAttrs holds explicit bit for each attribute index
+     * @param deduper if non-null, used to share equal state with other containers
      */
-    private Large(Object[] attrValues, BitSet explicitAttrs) {
+    private Large(Object[] attrValues, BitSet explicitAttrs, @Nullable Deduper deduper) {
       this.maxAttrCount = attrValues.length;
       int numSet = nonNullCount(attrValues);
       if (numSet == 0) {
@@ -357,7 +484,7 @@ abstract class AttributeContainer {
       }
       int p = prefixSize(maxAttrCount);
       values = new Object[numSet];
-      state = new byte[p + numSet];
+      byte[] state = new byte[p + numSet];
       int index = 0;
       int attrIndex = -1;
       for (Object attrValue : attrValues) {
@@ -369,9 +496,10 @@ abstract class AttributeContainer {
           setBit(state, attrIndex);
         }
         state[index + p] = (byte) attrIndex;
-        values[index] = attrValue;
+        values[index] = deduper != null ? deduper.dedupValue(attrValue) : attrValue;
         index += 1;
       }
+      this.state = deduper != null ? deduper.dedupState(state) : state;
     }
 
     /**
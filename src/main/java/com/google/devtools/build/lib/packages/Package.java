@@ -241,6 +241,9 @@ public class Package {
 
   private long computationSteps;
 
+  private int sharedAttributeStateCount;
+  private int sharedAttributeValueCount;
+
   private ImmutableMap<String, Module> loads;
 
   /** Returns the number of Starlark computation steps executed by this BUILD file. */
@@ -248,6 +251,22 @@ public class Package {
     return computationSteps;
   }
 
+  /**
+   * Returns how many rules of this package share their attribute state (values present and their
+   * explicitness) with an earlier rule instead of holding their own copy.
+   */
+  public int getSharedAttributeStateCount() {
+    return sharedAttributeStateCount;
+  }
+
+  /**
+   * Returns how many attribute values of this package's rules are shared with an earlier rule
+   * instead of being held as an equal copy.
+   */
+  public int getSharedAttributeValueCount() {
+    return sharedAttributeValueCount;
+  }
+
   /**
    * Returns the mapping, for each load statement in this BUILD file in source order, from the load
    * string to the module it loads. It thus indirectly records the package's complete load DAG. In
@@ -1759,12 +1778,15 @@ public class Package {
         return pkg;
       }
 
-      // Freeze targets and distributions.
+      // Freeze targets and distributions. Rules in the same package share equal attribute state.
+      AttributeContainer.Deduper attributeDeduper = new AttributeContainer.Deduper();
       for (Target t : targets.values()) {
         if (t instanceof Rule) {
-          ((Rule) t).freeze();
+          ((Rule) t).freeze(attributeDeduper);
         }
       }
+      pkg.sharedAttributeStateCount = attributeDeduper.getSharedStateCount();
+      pkg.sharedAttributeValueCount = attributeDeduper.getSharedValueCount();
       targets = Maps.unmodifiableBiMap(targets);
       defaultDistributionSet =
           Collections.unmodifiableSet(defaultDistributionSet);
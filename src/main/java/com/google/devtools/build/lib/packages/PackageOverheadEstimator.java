@@ -21,7 +21,9 @@ import java.util.OptionalLong;
  *
  * <p>Estimates are not intended to be perfect but should be reproducible. Some things may be
  * over-accounted, some things under, with the expectation that it all comes out roughly even in the
- * end.
+ * end. Attribute state and values that rules share with other rules of the same package (see
+ * {@link Package#getSharedAttributeStateCount} and {@link Package#getSharedAttributeValueCount})
+ * should not be counted once per rule.
  */
 public interface PackageOverheadEstimator {
 
@@ -636,8 +636,8 @@ public class Rule implements Target, DependencyFilter.AttributeInfoProvider {
     return transitions;
   }
 
-  void freeze() {
-    attributes = attributes.freeze();
+  void freeze(AttributeContainer.Deduper deduper) {
+    attributes = attributes.freeze(deduper);
   }
 
   /**
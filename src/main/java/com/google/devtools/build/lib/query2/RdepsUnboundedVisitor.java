@@ -102,7 +102,9 @@ class RdepsUnboundedVisitor extends AbstractTargetOuputtingVisitor<DepAndRdep> {
     // Retrieve the reverse deps as SkyKeys and defer the targetification and filtering to next
     // recursive visitation. Because the universe given to us is unfiltered, we definitely still
     // need to filter out disallowed edges, but cannot do so before targetification occurs. This
-    // means we may be wastefully visiting nodes via disallowed edges.
+    // means we may be wastefully visiting nodes via disallowed edges. Rdeps that were already
+    // validly visited are dropped right away, though: for nodes with a large fan-in this keeps
+    // most of the reverse edges from ever being materialized as DepAndRdep instances.
     ImmutableList.Builder<DepAndRdep> depAndRdepsToVisitBuilder = ImmutableList.builder();
     env.getReverseDepLabelsOfLabels(uniqueValidRdeps)
         .entrySet()
@@ -112,7 +114,10 @@ class RdepsUnboundedVisitor extends AbstractTargetOuputtingVisitor<DepAndRdep> {
                     Iterables.transform(
                         Iterables.filter(
                             reverseDepsEntry.getValue(),
-                            Predicates.and(SkyQueryEnvironment.IS_LABEL, unfilteredUniverse)),
+                            Predicates.and(
+                                SkyQueryEnvironment.IS_LABEL,
+                                unfilteredUniverse,
+                                validRdepUniquifier::uniquePure)),
                         rdep -> new DepAndRdep(reverseDepsEntry.getKey(), rdep))));
 
     return new Visit(
@@ -656,6 +656,7 @@ public class SkyQueryEnvironment extends AbstractBlazeQueryEnvironment<Target>
             for (Label label : getAllowedDeps((Rule) parent)) {
               if (keys.contains(label)) {
                 result.add(parent);
+                break;
               }
             }
           } else {
@@ -141,6 +141,15 @@ public class ProtoOutputFormatter extends AbstractUnorderedFormatter {
     this.hashFunction = hashFunction;
   }
 
+  @Nullable
+  AspectResolver getAspectResolver() {
+    return aspectResolver;
+  }
+
+  DependencyFilter getDependencyFilter() {
+    return dependencyFilter;
+  }
+
   @Override
   public void setEventHandler(@Nullable EventHandler eventHandler) {
     this.eventHandler = eventHandler;
@@ -193,6 +202,16 @@ public class ProtoOutputFormatter extends AbstractUnorderedFormatter {
   /** Converts a logical {@link Target} object into a {@link Build.Target} protobuffer. */
   public Build.Target toTargetProtoBuffer(Target target, Object extraDataForAttrHash)
       throws InterruptedException {
+    return toTargetProtoBuffer(target, extraDataForAttrHash, aspectResolver);
+  }
+
+  /**
+   * Like {@link #toTargetProtoBuffer(Target, Object)}, but takes aspect and BUILD file dependencies
+   * from {@code resolver} instead of the resolver passed to {@link #setOptions}.
+   */
+  Build.Target toTargetProtoBuffer(
+      Target target, Object extraDataForAttrHash, @Nullable AspectResolver resolver)
+      throws InterruptedException {
     Build.Target.Builder targetPb = Build.Target.newBuilder();
 
     if (target instanceof Rule) {
@@ -217,7 +236,7 @@ public class ProtoOutputFormatter extends AbstractUnorderedFormatter {
       }
 
       ImmutableMultimap<Attribute, Label> aspectsDependencies =
-          aspectResolver.computeAspectDependencies(target, dependencyFilter);
+          resolver.computeAspectDependencies(target, dependencyFilter);
       if (!aspectsDependencies.isEmpty()) {
         // Add information about additional attributes from aspects.
         List<Build.Attribute> attributes = new ArrayList<>(aspectsDependencies.asMap().size());
@@ -310,9 +329,9 @@ public class ProtoOutputFormatter extends AbstractUnorderedFormatter {
 
       if (inputFile.getName().equals("BUILD")) {
         Iterable<Label> starlarkLoadLabels =
-            aspectResolver == null
+            resolver == null
                 ? inputFile.getPackage().getStarlarkFileDependencies()
-                : aspectResolver.computeBuildFileDependencies(inputFile.getPackage());
+                : resolver.computeBuildFileDependencies(inputFile.getPackage());
 
         for (Label starlarkLoadLabel : starlarkLoadLabels) {
           input.addSubinclude(starlarkLoadLabel.toString());
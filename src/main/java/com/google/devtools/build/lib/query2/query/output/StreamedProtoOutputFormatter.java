@@ -13,17 +13,57 @@
 // limitations under the License.
 package com.google.devtools.build.lib.query2.query.output;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableMultimap;
+import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.devtools.build.lib.cmdline.Label;
+import com.google.devtools.build.lib.packages.Attribute;
+import com.google.devtools.build.lib.packages.DependencyFilter;
+import com.google.devtools.build.lib.packages.InputFile;
+import com.google.devtools.build.lib.packages.Package;
+import com.google.devtools.build.lib.packages.Rule;
 import com.google.devtools.build.lib.packages.Target;
 import com.google.devtools.build.lib.query2.engine.OutputFormatterCallback;
+import com.google.devtools.build.lib.query2.query.aspectresolvers.AspectResolver;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.annotation.Nullable;
 
 /**
  * An output formatter that outputs a protocol buffer representation of a query result and outputs
  * the proto bytes to the output print stream. By taking the bytes and calling {@code mergeFrom()}
  * on a {@code Build.QueryResult} object the full result can be reconstructed.
+ *
+ * <p>Targets are converted and serialized in chunks on a small thread pool, and the chunks are
+ * written out in the order of the input. Only a bounded number of chunks is in flight at any time,
+ * so memory use does not grow with the size of the result. Aspect and BUILD file dependencies are
+ * resolved on the calling thread before a chunk is handed to the pool: resolving them may load
+ * packages, and {@link AspectResolver} implementations are not required to be thread-safe. The pool
+ * only reads the already loaded targets.
  */
 public class StreamedProtoOutputFormatter extends ProtoOutputFormatter {
+  /** Number of targets serialized together by a single task. */
+  @VisibleForTesting static final int TARGETS_PER_CHUNK = 500;
+
+  private static final int PARALLELISM = Runtime.getRuntime().availableProcessors();
+
+  /** Maximum number of serialized chunks waiting to be written to the output. */
+  @VisibleForTesting static final int MAX_PENDING_CHUNKS = 2 * PARALLELISM;
+
   @Override
   public String getName() {
     return "streamed_proto";
@@ -33,13 +73,117 @@ public class StreamedProtoOutputFormatter extends ProtoOutputFormatter {
   public OutputFormatterCallback<Target> createPostFactoStreamCallback(
       final OutputStream out, final QueryOptions options) {
     return new OutputFormatterCallback<Target>() {
+      private ExecutorService executor;
+
+      @Override
+      public void start() {
+        executor =
+            Executors.newFixedThreadPool(
+                PARALLELISM,
+                new ThreadFactoryBuilder()
+                    .setNameFormat("streamed-proto-output-%d")
+                    .setDaemon(true)
+                    .build());
+      }
+
       @Override
       public void processOutput(Iterable<Target> partialResult)
           throws IOException, InterruptedException {
-        for (Target target : partialResult) {
-          toTargetProtoBuffer(target).writeDelimitedTo(out);
+        Deque<Future<byte[]>> pending = new ArrayDeque<>();
+        try {
+          for (List<Target> chunk : Iterables.partition(partialResult, TARGETS_PER_CHUNK)) {
+            AspectResolver resolver = resolveAspects(chunk);
+            pending.addLast(executor.submit(() -> writeDelimited(chunk, resolver)));
+            if (pending.size() >= MAX_PENDING_CHUNKS) {
+              out.write(getChunk(pending.removeFirst()));
+            }
+          }
+          while (!pending.isEmpty()) {
+            out.write(getChunk(pending.removeFirst()));
+          }
+        } finally {
+          for (Future<byte[]> future : pending) {
+            future.cancel(/*mayInterruptIfRunning=*/ true);
+          }
+        }
+      }
+
+      @Override
+      public void close(boolean failFast) {
+        if (executor != null) {
+          executor.shutdownNow();
         }
       }
     };
   }
+
+  private byte[] writeDelimited(List<Target> targets, @Nullable AspectResolver resolver)
+      throws IOException, InterruptedException {
+    ByteArrayOutputStream chunkOut = new ByteArrayOutputStream();
+    for (Target target : targets) {
+      toTargetProtoBuffer(target, /*extraDataForAttrHash=*/ "", resolver)
+          .writeDelimitedTo(chunkOut);
+    }
+    return chunkOut.toByteArray();
+  }
+
+  private static byte[] getChunk(Future<byte[]> future) throws IOException, InterruptedException {
+    try {
+      return future.get();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      Throwables.propagateIfPossible(cause, IOException.class, InterruptedException.class);
+      throw new IllegalStateException(cause);
+    }
+  }
+
+  /**
+   * Resolves the aspect and BUILD file dependencies of {@code targets} with the configured {@link
+   * AspectResolver}, so that converting them does not need to call it again.
+   */
+  @Nullable
+  private AspectResolver resolveAspects(List<Target> targets) throws InterruptedException {
+    AspectResolver resolver = getAspectResolver();
+    if (resolver == null) {
+      return null;
+    }
+    Map<Target, ImmutableMultimap<Attribute, Label>> aspectDependencies = new HashMap<>();
+    Map<Package, Set<Label>> buildFileDependencies = new HashMap<>();
+    for (Target target : targets) {
+      if (target instanceof Rule) {
+        aspectDependencies.put(
+            target, resolver.computeAspectDependencies(target, getDependencyFilter()));
+      } else if (target instanceof InputFile && target.getName().equals("BUILD")) {
+        Package pkg = target.getPackage();
+        if (!buildFileDependencies.containsKey(pkg)) {
+          buildFileDependencies.put(pkg, resolver.computeBuildFileDependencies(pkg));
+        }
+      }
+    }
+    return new PrecomputedAspectResolver(aspectDependencies, buildFileDependencies);
+  }
+
+  /** Answers from dependencies resolved ahead of time by {@link #resolveAspects}. */
+  private static final class PrecomputedAspectResolver implements AspectResolver {
+    private final Map<Target, ImmutableMultimap<Attribute, Label>> aspectDependencies;
+    private final Map<Package, Set<Label>> buildFileDependencies;
+
+    PrecomputedAspectResolver(
+        Map<Target, ImmutableMultimap<Attribute, Label>> aspectDependencies,
+        Map<Package, Set<Label>> buildFileDependencies) {
+      this.aspectDependencies = aspectDependencies;
+      this.buildFileDependencies = buildFileDependencies;
+    }
+
+    @Override
+    public ImmutableMultimap<Attribute, Label> computeAspectDependencies(
+        Target target, DependencyFilter dependencyFilter) {
+      return Preconditions.checkNotNull(aspectDependencies.get(target), target);
+    }
+
+    @Override
+    public Set<Label> computeBuildFileDependencies(Package pkg) {
+      return Preconditions.checkNotNull(buildFileDependencies.get(pkg), pkg);
+    }
+  }
 }
@@ -42,6 +42,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -58,6 +59,14 @@ class ByteStreamBuildEventArtifactUploader extends AbstractReferenceCounted
 
   private final AtomicBoolean shutdown = new AtomicBoolean();
 
+  /**
+   * Digests that are known to be present in the remote cache, either because a previous call to
+   * {@link MissingDigestsFinder#findMissingDigests} said so or because this uploader uploaded them.
+   * The same file is commonly referenced by several build events (e.g. a test log by both the test
+   * result and the target completion), so this avoids redundant remote cache lookups.
+   */
+  private final Set<Digest> knownRemoteDigests = ConcurrentHashMap.newKeySet();
+
   ByteStreamBuildEventArtifactUploader(
       ByteStreamUploader uploader,
       MissingDigestsFinder missingDigestsFinder,
@@ -128,22 +137,25 @@ class ByteStreamBuildEventArtifactUploader extends AbstractReferenceCounted
     return new PathMetadata(file, digest, /* directory= */ false, isRemoteFile(file));
   }
 
-  private static List<PathMetadata> processQueryResult(
+  private List<PathMetadata> processQueryResult(
       ImmutableSet<Digest> missingDigests, List<PathMetadata> filesToQuery) {
     List<PathMetadata> allPaths = new ArrayList<>(filesToQuery.size());
     for (PathMetadata file : filesToQuery) {
       if (missingDigests.contains(file.getDigest())) {
         allPaths.add(file);
       } else {
-        PathMetadata remotePathMetadata =
-            new PathMetadata(
-                file.getPath(), file.getDigest(), file.isDirectory(), /* remote= */ true);
-        allPaths.add(remotePathMetadata);
+        knownRemoteDigests.add(file.getDigest());
+        allPaths.add(asRemote(file));
       }
     }
     return allPaths;
   }
 
+  private static PathMetadata asRemote(PathMetadata file) {
+    return new PathMetadata(
+        file.getPath(), file.getDigest(), file.isDirectory(), /* remote= */ true);
+  }
+
   /**
    * For files where {@link PathMetadata#isRemote()} returns {@code false} this method checks if the
    * remote cache already contains the file. If so {@link PathMetadata#isRemote()} is set to {@code
@@ -164,6 +176,8 @@ class ByteStreamBuildEventArtifactUploader extends AbstractReferenceCounted
       PathMetadata pathMetadata = pathMetadataFuture.get();
       if (pathMetadata.isRemote() || pathMetadata.isDirectory()) {
         knownRemotePaths.add(pathMetadata);
+      } else if (knownRemoteDigests.contains(pathMetadata.getDigest())) {
+        knownRemotePaths.add(asRemote(pathMetadata));
       } else {
         filesToQuery.add(pathMetadata);
         digestsToQuery.add(pathMetadata.getDigest());
@@ -200,7 +214,14 @@ class ByteStreamBuildEventArtifactUploader extends AbstractReferenceCounted
         final ListenableFuture<Void> upload;
         upload =
             uploader.uploadBlobAsync(context, path.getDigest(), chunker, /* forceUpload= */ false);
-        allPathsUploaded.add(Futures.transform(upload, unused -> path, uploadExecutor));
+        allPathsUploaded.add(
+            Futures.transform(
+                upload,
+                unused -> {
+                  knownRemoteDigests.add(path.getDigest());
+                  return path;
+                },
+                uploadExecutor));
       } else {
         allPathsUploaded.add(Futures.immediateFuture(path));
       }
@@ -259,6 +259,19 @@ public class BlazeCommandDispatcher implements CommandDispatcher {
     }
   }
 
+  @Override
+  public void doIdleServerTasks() {
+    BlazeWorkspace workspace = runtime.getWorkspace();
+    if (workspace != null) {
+      try {
+        workspace.getSkyframeExecutor().compactGraph();
+      } catch (InterruptedException e) {
+        // A command is about to start; the rest of the graph is compacted next time we are idle.
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
   /**
    * For testing ONLY. Same as {@link #exec(InvocationPolicy, List, OutErr, LockingMode, String,
    * long, Optional<List<Pair<String, String>>>)}, but automatically uses the current time.
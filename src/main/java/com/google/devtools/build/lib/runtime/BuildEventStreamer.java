@@ -270,6 +270,8 @@ public class BuildEventStreamer {
       mainEvent = new LastBuildEvent(event);
     }
 
+    // Note that callers such as buildComplete() and clearAnnouncedEvents() still hold the monitor
+    // here, so a transport blocking in sendBuildEvent to apply back-pressure stalls all posting.
     for (BuildEventTransport transport : transports) {
       if (linkEvents != null) {
         for (BuildEvent linkEvent : linkEvents) {
@@ -47,4 +47,12 @@ public interface CommandDispatcher {
       Optional<List<Pair<String, String>>> startupOptionsTaggedWithBazelRc,
       List<Any> commandExtensions)
       throws InterruptedException;
+
+  /**
+   * Releases memory held by state that is kept between commands but only needed while a command is
+   * running. Called from a background thread while the server is idle; never runs concurrently
+   * with {@link #exec}. The thread is interrupted when a command arrives, so implementations should
+   * stop promptly when interrupted and leave the interrupt bit set.
+   */
+  default void doIdleServerTasks() {}
 }
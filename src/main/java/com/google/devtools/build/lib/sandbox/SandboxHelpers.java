@@ -25,10 +25,12 @@ import com.google.devtools.build.lib.actions.Spawn;
 import com.google.devtools.build.lib.actions.cache.VirtualActionInput;
 import com.google.devtools.build.lib.actions.cache.VirtualActionInput.EmptyActionInput;
 import com.google.devtools.build.lib.analysis.test.TestConfiguration;
+import com.google.devtools.build.lib.vfs.FileStatus;
 import com.google.devtools.build.lib.vfs.FileSystemUtils;
 import com.google.devtools.build.lib.vfs.FileSystemUtils.MoveResult;
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.Symlinks;
 import com.google.devtools.common.options.OptionsParsingResult;
 import java.io.IOException;
 import java.io.OutputStream;
@@ -121,14 +123,25 @@ public final class SandboxHelpers {
    */
   public static void moveOutputs(SandboxOutputs outputs, Path sourceRoot, Path targetRoot)
       throws IOException {
+    // Many outputs usually share a parent directory, so only make sure each one exists once.
+    Set<Path> createdParentDirectories = new HashSet<>();
     for (PathFragment output : Iterables.concat(outputs.files(), outputs.dirs())) {
       Path source = sourceRoot.getRelative(output);
       Path target = targetRoot.getRelative(output);
-      if (source.isFile() || source.isSymbolicLink()) {
+      // A single lstat tells files and symlinks (which are moved as they are, whatever they point
+      // to) apart from directories.
+      FileStatus stat = source.statNullable(Symlinks.NOFOLLOW);
+      if (stat == null) {
+        continue;
+      }
+      if (stat.isFile() || stat.isSymbolicLink()) {
         // Ensure the target directory exists in the target. The directories for the action outputs
         // have already been created, but the spawn outputs may be different from the overall action
         // outputs. This is the case for test actions.
-        target.getParentDirectory().createDirectoryAndParents();
+        Path targetParent = target.getParentDirectory();
+        if (createdParentDirectories.add(targetParent)) {
+          targetParent.createDirectoryAndParents();
+        }
         if (FileSystemUtils.moveFile(source, target).equals(MoveResult.FILE_COPIED)) {
           if (warnedAboutMovesBeingCopies.compareAndSet(false, true)) {
             logger.atWarning().log(
@@ -138,7 +151,7 @@ public final class SandboxHelpers {
                 source, target);
           }
         }
-      } else if (source.isDirectory()) {
+      } else if (stat.isDirectory()) {
         try {
           source.renameTo(target);
         } catch (IOException e) {
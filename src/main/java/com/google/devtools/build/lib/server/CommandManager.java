@@ -35,11 +35,17 @@ class CommandManager {
 
   private final AtomicLong interruptCounter = new AtomicLong(0);
   private final boolean doIdleServerTasks;
+  private final Runnable idleTask;
 
   private IdleServerTasks idleServerTasks;
 
   CommandManager(boolean doIdleServerTasks) {
+    this(doIdleServerTasks, () -> {});
+  }
+
+  CommandManager(boolean doIdleServerTasks, Runnable idleTask) {
     this.doIdleServerTasks = doIdleServerTasks;
+    this.idleTask = idleTask;
     idle();
   }
 
@@ -132,7 +138,7 @@ class CommandManager {
   private void idle() {
     Preconditions.checkState(idleServerTasks == null);
     if (doIdleServerTasks) {
-      idleServerTasks = new IdleServerTasks();
+      idleServerTasks = new IdleServerTasks(idleTask);
       idleServerTasks.idle();
     }
   }
@@ -329,7 +329,7 @@ public class GrpcServerImpl extends CommandServerGrpc.CommandServerImplBase impl
                     .build()));
 
 
-    commandManager = new CommandManager(doIdleServerTasks);
+    commandManager = new CommandManager(doIdleServerTasks, dispatcher::doIdleServerTasks);
   }
 
   private static String generateCookie(SecureRandom random, int byteCount) {
@@ -33,10 +33,16 @@ import java.util.concurrent.TimeUnit;
  */
 class IdleServerTasks {
   private final ScheduledThreadPoolExecutor executor;
+  private final Runnable idleTask;
   private static final GoogleLogger logger = GoogleLogger.forEnclosingClass();
 
-  /** Must be called from the main thread. */
-  public IdleServerTasks() {
+  /**
+   * Must be called from the main thread. {@code idleTask} is run right before the idle GC, so that
+   * the memory it releases shows up in the logged heap usage. It runs on a background thread that
+   * is interrupted by {@link #busy}, so it should stop promptly when interrupted.
+   */
+  public IdleServerTasks(Runnable idleTask) {
+    this.idleTask = idleTask;
     this.executor = new ScheduledThreadPoolExecutor(
         1,
         new ThreadFactoryBuilder().setNameFormat("idle-server-tasks-%d").build());
@@ -55,6 +61,13 @@ class IdleServerTasks {
             () -> {
               MemoryMXBean memBean = ManagementFactory.getMemoryMXBean();
               MemoryUsage before = memBean.getHeapMemoryUsage();
+              try (AutoProfiler p = GoogleAutoProfilerUtils.logged("Idle compaction")) {
+                idleTask.run();
+              }
+              if (Thread.currentThread().isInterrupted()) {
+                // busy() was called while compacting; don't hold up the incoming command.
+                return;
+              }
               try (AutoProfiler p = GoogleAutoProfilerUtils.logged("Idle GC")) {
                 System.gc();
               }
@@ -77,11 +90,11 @@ class IdleServerTasks {
   public void busy() {
     Preconditions.checkState(!executor.isShutdown());
 
-    // Make sure tasks are finished after shutdown(), so they do not intefere
-    // with subsequent server invocations.
-    executor.shutdown();
-    executor.setContinueExistingPeriodicTasksAfterShutdownPolicy(false);
-    executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    // Make sure tasks are finished after shutdown, so they do not intefere
+    // with subsequent server invocations. shutdownNow() drops the pending delayed
+    // task and interrupts a running one, which stops the idle task at its next
+    // interruption check; only an idle GC that has already started is waited for.
+    executor.shutdownNow();
 
     boolean interrupted = false;
     while (true) {
@@ -110,6 +110,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.IntFunction;
@@ -780,7 +781,8 @@ public class ActionExecutionFunction implements SkyFunction {
             pathResolver,
             skyframeActionExecutor.getExecRoot().asFragment(),
             PathFragment.create(directories.getRelativeOutputPath()),
-            expandedFilesets);
+            expandedFilesets,
+            ForkJoinPool.commonPool());
 
     // We only need to check the action cache if we haven't done it on a previous run.
     if (!state.hasCheckedActionCache()) {
@@ -19,6 +19,7 @@ import static com.google.common.base.Preconditions.checkState;
 import static java.util.concurrent.TimeUnit.MINUTES;
 
 import com.google.common.base.MoreObjects;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
@@ -51,10 +52,18 @@ import com.google.devtools.build.lib.vfs.RootedPath;
 import com.google.devtools.build.lib.vfs.Symlinks;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import javax.annotation.Nullable;
 
 /**
@@ -85,6 +94,10 @@ final class ActionMetadataHandler implements MetadataHandler {
    * artifact which is neither in {@code inputArtifactData} nor {@code outputs} is tolerated and
    * will return {@code null}. To subsequently transform the handler for regular action execution
    * (where such a call is not permitted), use {@link #transformAfterInputDiscovery}.
+   *
+   * <p>{@code treeChildMetadataExecutor} may be used to help construct the metadata of the
+   * children of large tree artifacts. The calling thread does the work itself if the executor is
+   * busy, so a saturated or rejecting executor never makes it slower than doing it sequentially.
    */
   static ActionMetadataHandler create(
       ActionInputMap inputArtifactData,
@@ -95,7 +108,8 @@ final class ActionMetadataHandler implements MetadataHandler {
       ArtifactPathResolver artifactPathResolver,
       PathFragment execRoot,
       PathFragment derivedPathPrefix,
-      Map<Artifact, ImmutableList<FilesetOutputSymlink>> expandedFilesets) {
+      Map<Artifact, ImmutableList<FilesetOutputSymlink>> expandedFilesets,
+      Executor treeChildMetadataExecutor) {
     return new ActionMetadataHandler(
         inputArtifactData,
         forInputDiscovery,
@@ -106,7 +120,8 @@ final class ActionMetadataHandler implements MetadataHandler {
         execRoot,
         derivedPathPrefix,
         createFilesetMapping(expandedFilesets, execRoot),
-        new OutputStore());
+        new OutputStore(),
+        treeChildMetadataExecutor);
   }
 
   private final ActionInputMap inputArtifactData;
@@ -117,6 +132,16 @@ final class ActionMetadataHandler implements MetadataHandler {
   private final Set<Artifact> omittedOutputs = Sets.newConcurrentHashSet();
   private final ImmutableSet<Artifact> outputs;
 
+  /**
+   * Number of tree artifact children whose metadata is constructed by a single task. Trees with
+   * fewer than two batches are handled entirely on the calling thread.
+   */
+  private static final int TREE_CHILD_METADATA_BATCH_SIZE = 256;
+
+  /** Maximum number of tasks submitted to help the calling thread with a single tree artifact. */
+  private static final int MAX_TREE_CHILD_METADATA_HELPERS =
+      Runtime.getRuntime().availableProcessors();
+
   private final TimestampGranularityMonitor tsgm;
   private final ArtifactPathResolver artifactPathResolver;
   private final PathFragment execRoot;
@@ -124,6 +149,7 @@ final class ActionMetadataHandler implements MetadataHandler {
 
   private final AtomicBoolean executionMode = new AtomicBoolean(false);
   private final OutputStore store;
+  private final Executor treeChildMetadataExecutor;
 
   private ActionMetadataHandler(
       ActionInputMap inputArtifactData,
@@ -135,7 +161,8 @@ final class ActionMetadataHandler implements MetadataHandler {
       PathFragment execRoot,
       PathFragment derivedPathPrefix,
       ImmutableMap<PathFragment, FileArtifactValue> filesetMapping,
-      OutputStore store) {
+      OutputStore store,
+      Executor treeChildMetadataExecutor) {
     this.inputArtifactData = checkNotNull(inputArtifactData);
     this.forInputDiscovery = forInputDiscovery;
     this.archivedTreeArtifactsEnabled = archivedTreeArtifactsEnabled;
@@ -146,6 +173,7 @@ final class ActionMetadataHandler implements MetadataHandler {
     this.derivedPathPrefix = checkNotNull(derivedPathPrefix);
     this.filesetMapping = checkNotNull(filesetMapping);
     this.store = checkNotNull(store);
+    this.treeChildMetadataExecutor = checkNotNull(treeChildMetadataExecutor);
   }
 
   /**
@@ -170,7 +198,8 @@ final class ActionMetadataHandler implements MetadataHandler {
         execRoot,
         derivedPathPrefix,
         filesetMapping,
-        store);
+        store,
+        treeChildMetadataExecutor);
   }
 
   /**
@@ -332,6 +361,7 @@ final class ActionMetadataHandler implements MetadataHandler {
 
     TreeArtifactValue.Builder tree = TreeArtifactValue.newBuilder(parent);
 
+    List<TreeFileArtifact> children = new ArrayList<>();
     TreeArtifactValue.visitTree(
         treeDir,
         (parentRelativePath, type) -> {
@@ -341,22 +371,14 @@ final class ActionMetadataHandler implements MetadataHandler {
           if (type == Dirent.Type.DIRECTORY) {
             return; // The final TreeArtifactValue does not contain child directories.
           }
-          TreeFileArtifact child = TreeFileArtifact.createTreeOutput(parent, parentRelativePath);
-          FileArtifactValue metadata;
-          try {
-            metadata = constructFileArtifactValueFromFilesystem(child);
-          } catch (FileNotFoundException e) {
-            String errorMessage =
-                String.format(
-                    "Failed to resolve relative path %s inside TreeArtifact %s. "
-                        + "The associated file is either missing or is an invalid symlink.",
-                    parentRelativePath, treeDir);
-            throw new IOException(errorMessage, e);
-          }
-
-          tree.putChild(child, metadata);
+          children.add(TreeFileArtifact.createTreeOutput(parent, parentRelativePath));
         });
 
+    FileArtifactValue[] metadata = constructTreeChildValues(children, treeDir);
+    for (int i = 0; i < metadata.length; i++) {
+      tree.putChild(children.get(i), metadata[i]);
+    }
+
     if (archivedTreeArtifactsEnabled) {
       ArchivedTreeArtifact archivedTreeArtifact =
           ArchivedTreeArtifact.create(parent, derivedPathPrefix);
@@ -378,6 +400,95 @@ final class ActionMetadataHandler implements MetadataHandler {
     return tree.build();
   }
 
+  /**
+   * Constructs the metadata of the given tree artifact children.
+   *
+   * <p>Large trees are split into batches which are claimed one at a time by the calling thread
+   * and by up to {@link #MAX_TREE_CHILD_METADATA_HELPERS} helper tasks on {@link
+   * #treeChildMetadataExecutor}. The calling thread keeps claiming batches until none are left, so
+   * helpers that never get to run (e.g. because many actions are doing the same thing at once)
+   * cost nothing, and the caller only ever waits for batches a helper is actively working on.
+   */
+  private FileArtifactValue[] constructTreeChildValues(
+      List<TreeFileArtifact> children, Path treeDir) throws IOException {
+    FileArtifactValue[] metadata = new FileArtifactValue[children.size()];
+    int numBatches =
+        (children.size() + TREE_CHILD_METADATA_BATCH_SIZE - 1) / TREE_CHILD_METADATA_BATCH_SIZE;
+    if (numBatches < 2) {
+      constructTreeChildValues(children, treeDir, metadata, 0, children.size());
+      return metadata;
+    }
+
+    AtomicInteger nextBatch = new AtomicInteger();
+    CountDownLatch batchesDone = new CountDownLatch(numBatches);
+    AtomicReference<Throwable> failure = new AtomicReference<>();
+    Runnable claimBatches =
+        () -> {
+          for (int batch = nextBatch.getAndIncrement();
+              batch < numBatches;
+              batch = nextBatch.getAndIncrement()) {
+            try {
+              if (failure.get() == null) {
+                int start = batch * TREE_CHILD_METADATA_BATCH_SIZE;
+                int end = Math.min(start + TREE_CHILD_METADATA_BATCH_SIZE, children.size());
+                constructTreeChildValues(children, treeDir, metadata, start, end);
+              }
+            } catch (IOException | RuntimeException | Error e) {
+              failure.compareAndSet(null, e);
+            } finally {
+              batchesDone.countDown();
+            }
+          }
+        };
+
+    int numHelpers = Math.min(numBatches - 1, MAX_TREE_CHILD_METADATA_HELPERS);
+    try {
+      for (int i = 0; i < numHelpers; i++) {
+        treeChildMetadataExecutor.execute(claimBatches);
+      }
+    } catch (RejectedExecutionException e) {
+      // The calling thread claims whatever batches the helpers don't.
+    }
+    claimBatches.run();
+
+    try {
+      batchesDone.await();
+    } catch (InterruptedException e) {
+      // Let helpers finish their current batch without claiming any more.
+      nextBatch.set(numBatches);
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while collecting metadata of " + treeDir);
+    }
+    Throwable cause = failure.get();
+    if (cause != null) {
+      Throwables.propagateIfPossible(cause, IOException.class);
+      throw new IllegalStateException(cause);
+    }
+    return metadata;
+  }
+
+  private void constructTreeChildValues(
+      List<TreeFileArtifact> children,
+      Path treeDir,
+      FileArtifactValue[] metadata,
+      int start,
+      int end)
+      throws IOException {
+    for (int i = start; i < end; i++) {
+      TreeFileArtifact child = children.get(i);
+      try {
+        metadata[i] = constructFileArtifactValueFromFilesystem(child);
+      } catch (FileNotFoundException e) {
+        String errorMessage =
+            String.format(
+                "Failed to resolve relative path %s inside TreeArtifact %s. "
+                    + "The associated file is either missing or is an invalid symlink.",
+                child.getParentRelativePath(), treeDir);
+        throw new IOException(errorMessage, e);
+      }
+    }
+  }
+
   @Override
   public ImmutableSet<TreeFileArtifact> getTreeArtifactChildren(SpecialArtifact treeArtifact) {
     checkArgument(treeArtifact.isTreeArtifact(), "%s is not a tree artifact", treeArtifact);
@@ -846,6 +846,16 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory, Configur
     memoizingEvaluator.noteEvaluationsAtSameVersionMayBeFinished(eventHandler);
   }
 
+  /**
+   * Releases memory in the Skyframe graph that is only needed during evaluation. Should only be
+   * called between commands.
+   */
+  public void compactGraph() throws InterruptedException {
+    long released = memoizingEvaluator.compactGraph();
+    logger.atInfo().log(
+        "Compacting the Skyframe graph released %d pending reverse dep operations", released);
+  }
+
   /**
    * Notifies the executor to post logging stats when the server is crashing, so that logging is
    * still available even when the server crashes.
@@ -23,7 +23,6 @@ import java.lang.reflect.Array;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
-import java.nio.ByteBuffer;
 import java.util.Comparator;
 import java.util.Map;
 import java.util.TreeMap;
@@ -61,7 +60,8 @@ public class DynamicCodec implements ObjectCodec<Object> {
   public void serialize(SerializationContext context, Object obj, CodedOutputStream codedOut)
       throws SerializationException, IOException {
     for (int i = 0; i < offsets.length; ++i) {
-      serializeField(context, codedOut, obj, offsets[i].type, offsets[i].offset);
+      TypeAndOffset field = offsets[i];
+      serializeField(context, codedOut, obj, field.type, field.kind, field.offset);
     }
   }
 
@@ -70,6 +70,7 @@ public class DynamicCodec implements ObjectCodec<Object> {
    *
    * @param obj the object containing the field to serialize. Can be an array or plain object.
    * @param type class of the field to serialize
+   * @param kind the {@link FieldKind} of {@code type}
    * @param offset unsafe offset into obj where the field will be found
    */
   @SuppressWarnings("LogAndThrow") // Want the full stack trace of serialization attempts.
@@ -78,70 +79,97 @@ public class DynamicCodec implements ObjectCodec<Object> {
       CodedOutputStream codedOut,
       Object obj,
       Class<?> type,
+      FieldKind kind,
       long offset)
       throws SerializationException, IOException {
-    if (type.isPrimitive()) {
-      if (type.equals(boolean.class)) {
+    switch (kind) {
+      case BOOLEAN:
         codedOut.writeBoolNoTag(UnsafeProvider.getInstance().getBoolean(obj, offset));
-      } else if (type.equals(byte.class)) {
+        return;
+      case BYTE:
         codedOut.writeRawByte(UnsafeProvider.getInstance().getByte(obj, offset));
-      } else if (type.equals(short.class)) {
-        ByteBuffer buffer =
-            ByteBuffer.allocate(2).putShort(UnsafeProvider.getInstance().getShort(obj, offset));
-        codedOut.writeRawBytes(buffer);
-      } else if (type.equals(char.class)) {
-        ByteBuffer buffer =
-            ByteBuffer.allocate(2).putChar(UnsafeProvider.getInstance().getChar(obj, offset));
-        codedOut.writeRawBytes(buffer);
-      } else if (type.equals(int.class)) {
+        return;
+      case SHORT:
+        writeTwoBytes(codedOut, UnsafeProvider.getInstance().getShort(obj, offset));
+        return;
+      case CHAR:
+        writeTwoBytes(codedOut, UnsafeProvider.getInstance().getChar(obj, offset));
+        return;
+      case INT:
         codedOut.writeInt32NoTag(UnsafeProvider.getInstance().getInt(obj, offset));
-      } else if (type.equals(long.class)) {
+        return;
+      case LONG:
         codedOut.writeInt64NoTag(UnsafeProvider.getInstance().getLong(obj, offset));
-      } else if (type.equals(float.class)) {
+        return;
+      case FLOAT:
         codedOut.writeFloatNoTag(UnsafeProvider.getInstance().getFloat(obj, offset));
-      } else if (type.equals(double.class)) {
+        return;
+      case DOUBLE:
         codedOut.writeDoubleNoTag(UnsafeProvider.getInstance().getDouble(obj, offset));
-      } else if (type.equals(void.class)) {
+        return;
+      case VOID:
         // Does nothing for void type.
-      } else {
-        throw new UnsupportedOperationException("Unknown primitive type: " + type);
-      }
-    } else if (type.isArray()) {
-      Object arr = UnsafeProvider.getInstance().getObject(obj, offset);
-      if (type.getComponentType().equals(byte.class)) {
-        if (arr == null) {
-          codedOut.writeBoolNoTag(false);
-        } else {
-          codedOut.writeBoolNoTag(true);
-          codedOut.writeByteArrayNoTag((byte[]) arr);
-        }
         return;
-      }
-      if (arr == null) {
-        codedOut.writeInt32NoTag(-1);
+      case BYTE_ARRAY:
+        {
+          byte[] arr = (byte[]) UnsafeProvider.getInstance().getObject(obj, offset);
+          if (arr == null) {
+            codedOut.writeBoolNoTag(false);
+          } else {
+            codedOut.writeBoolNoTag(true);
+            codedOut.writeByteArrayNoTag(arr);
+          }
+          return;
+        }
+      case ARRAY:
+        {
+          Object arr = UnsafeProvider.getInstance().getObject(obj, offset);
+          if (arr == null) {
+            codedOut.writeInt32NoTag(-1);
+            return;
+          }
+          int length = Array.getLength(arr);
+          codedOut.writeInt32NoTag(length);
+          int base = UnsafeProvider.getInstance().arrayBaseOffset(type);
+          int scale = UnsafeProvider.getInstance().arrayIndexScale(type);
+          if (scale == 0) {
+            throw new SerializationException("Failed to get index scale for type: " + type);
+          }
+          // The component kind is resolved once per array rather than once per element.
+          Class<?> componentType = type.getComponentType();
+          FieldKind componentKind = FieldKind.of(componentType);
+          for (int i = 0; i < length; ++i) {
+            // Serializes the ith array field directly from array memory.
+            serializeField(
+                context, codedOut, arr, componentType, componentKind, base + (long) scale * i);
+          }
+          return;
+        }
+      case OBJECT:
+        try {
+          context.serialize(UnsafeProvider.getInstance().getObject(obj, offset), codedOut);
+        } catch (SerializationException e) {
+          logger.atSevere().withCause(e).log(
+              "Unserializable object and superclass: %s %s", obj, obj.getClass().getSuperclass());
+          e.addTrail(this.type);
+          throw e;
+        }
         return;
-      }
-      int length = Array.getLength(arr);
-      codedOut.writeInt32NoTag(length);
-      int base = UnsafeProvider.getInstance().arrayBaseOffset(type);
-      int scale = UnsafeProvider.getInstance().arrayIndexScale(type);
-      if (scale == 0) {
-        throw new SerializationException("Failed to get index scale for type: " + type);
-      }
-      for (int i = 0; i < length; ++i) {
-        // Serializes the ith array field directly from array memory.
-        serializeField(context, codedOut, arr, type.getComponentType(), base + scale * i);
-      }
-    } else {
-      try {
-        context.serialize(UnsafeProvider.getInstance().getObject(obj, offset), codedOut);
-      } catch (SerializationException e) {
-        logger.atSevere().withCause(e).log(
-            "Unserializable object and superclass: %s %s", obj, obj.getClass().getSuperclass());
-        e.addTrail(this.type);
-        throw e;
-      }
     }
+    throw new UnsupportedOperationException("Unknown field kind: " + kind + " for " + type);
+  }
+
+  /** Writes a 16-bit value in big-endian order, matching {@link java.nio.ByteBuffer}'s default. */
+  private static void writeTwoBytes(CodedOutputStream codedOut, int value) throws IOException {
+    codedOut.writeRawByte((byte) (value >> 8));
+    codedOut.writeRawByte((byte) value);
+  }
+
+  /** Reads a 16-bit value written by {@link #writeTwoBytes}. */
+  private static int readTwoBytes(CodedInputStream codedIn) throws IOException {
+    int high = codedIn.readRawByte() & 0xff;
+    int low = codedIn.readRawByte() & 0xff;
+    return (high << 8) | low;
   }
 
   @Override
@@ -155,7 +183,8 @@ public class DynamicCodec implements ObjectCodec<Object> {
     }
     context.registerInitialValue(instance);
     for (int i = 0; i < offsets.length; ++i) {
-      deserializeField(context, codedIn, instance, offsets[i].type, offsets[i].offset);
+      TypeAndOffset field = offsets[i];
+      deserializeField(context, codedIn, instance, field.type, field.kind, field.offset);
     }
     return instance;
   }
@@ -165,6 +194,7 @@ public class DynamicCodec implements ObjectCodec<Object> {
    *
    * @param obj the object containing the field to deserialize. Can be an array or a plain object.
    * @param fieldType class of the field to deserialize
+   * @param kind the {@link FieldKind} of {@code fieldType}
    * @param offset unsafe offset into obj where the field should be written
    */
   private void deserializeField(
@@ -172,71 +202,135 @@ public class DynamicCodec implements ObjectCodec<Object> {
       CodedInputStream codedIn,
       Object obj,
       Class<?> fieldType,
+      FieldKind kind,
       long offset)
       throws SerializationException, IOException {
-    if (fieldType.isPrimitive()) {
-      if (fieldType.equals(boolean.class)) {
+    switch (kind) {
+      case BOOLEAN:
         UnsafeProvider.getInstance().putBoolean(obj, offset, codedIn.readBool());
-      } else if (fieldType.equals(byte.class)) {
+        return;
+      case BYTE:
         UnsafeProvider.getInstance().putByte(obj, offset, codedIn.readRawByte());
-      } else if (fieldType.equals(short.class)) {
-        ByteBuffer buffer = ByteBuffer.allocate(2).put(codedIn.readRawBytes(2));
-        UnsafeProvider.getInstance().putShort(obj, offset, buffer.getShort(0));
-      } else if (fieldType.equals(char.class)) {
-        ByteBuffer buffer = ByteBuffer.allocate(2).put(codedIn.readRawBytes(2));
-        UnsafeProvider.getInstance().putChar(obj, offset, buffer.getChar(0));
-      } else if (fieldType.equals(int.class)) {
+        return;
+      case SHORT:
+        UnsafeProvider.getInstance().putShort(obj, offset, (short) readTwoBytes(codedIn));
+        return;
+      case CHAR:
+        UnsafeProvider.getInstance().putChar(obj, offset, (char) readTwoBytes(codedIn));
+        return;
+      case INT:
         UnsafeProvider.getInstance().putInt(obj, offset, codedIn.readInt32());
-      } else if (fieldType.equals(long.class)) {
+        return;
+      case LONG:
         UnsafeProvider.getInstance().putLong(obj, offset, codedIn.readInt64());
-      } else if (fieldType.equals(float.class)) {
+        return;
+      case FLOAT:
         UnsafeProvider.getInstance().putFloat(obj, offset, codedIn.readFloat());
-      } else if (fieldType.equals(double.class)) {
+        return;
+      case DOUBLE:
         UnsafeProvider.getInstance().putDouble(obj, offset, codedIn.readDouble());
-      } else if (fieldType.equals(void.class)) {
-        // Does nothing for void type.
-      } else {
-        throw new UnsupportedOperationException(
-            "Unknown primitive field type " + fieldType + " for " + type);
-      }
-    } else if (fieldType.isArray()) {
-      if (fieldType.getComponentType().equals(byte.class)) {
-        boolean isNonNull = codedIn.readBool();
-        UnsafeProvider.getInstance()
-            .putObject(obj, offset, isNonNull ? codedIn.readByteArray() : null);
         return;
-      }
-      int length = codedIn.readInt32();
-      if (length < 0) {
-        UnsafeProvider.getInstance().putObject(obj, offset, null);
+      case VOID:
+        // Does nothing for void type.
         return;
+      case BYTE_ARRAY:
+        {
+          boolean isNonNull = codedIn.readBool();
+          UnsafeProvider.getInstance()
+              .putObject(obj, offset, isNonNull ? codedIn.readByteArray() : null);
+          return;
+        }
+      case ARRAY:
+        {
+          int length = codedIn.readInt32();
+          if (length < 0) {
+            UnsafeProvider.getInstance().putObject(obj, offset, null);
+            return;
+          }
+          Class<?> componentType = fieldType.getComponentType();
+          Object arr = Array.newInstance(componentType, length);
+          UnsafeProvider.getInstance().putObject(obj, offset, arr);
+          int base = UnsafeProvider.getInstance().arrayBaseOffset(fieldType);
+          int scale = UnsafeProvider.getInstance().arrayIndexScale(fieldType);
+          if (scale == 0) {
+            throw new SerializationException(
+                "Failed to get index scale for field type " + fieldType + " for " + type);
+          }
+          FieldKind componentKind = FieldKind.of(componentType);
+          for (int i = 0; i < length; ++i) {
+            // Deserializes type directly into array memory.
+            deserializeField(
+                context, codedIn, arr, componentType, componentKind, base + (long) scale * i);
+          }
+          return;
+        }
+      case OBJECT:
+        {
+          Object fieldValue = context.deserialize(codedIn);
+          if (fieldValue != null && !fieldType.isInstance(fieldValue)) {
+            throw new SerializationException(
+                "Field "
+                    + fieldValue
+                    + " was not instance of "
+                    + fieldType
+                    + " (was "
+                    + fieldValue.getClass()
+                    + ") for "
+                    + type);
+          }
+          UnsafeProvider.getInstance().putObject(obj, offset, fieldValue);
+          return;
+        }
+    }
+    throw new UnsupportedOperationException(
+        "Unknown field kind " + kind + " of type " + fieldType + " for " + type);
+  }
+
+  /**
+   * How a field of a given type is encoded. Computed once per field when the codec is created, so
+   * that (de)serialization dispatches on a switch instead of a chain of {@link Class#equals}.
+   */
+  private enum FieldKind {
+    BOOLEAN,
+    BYTE,
+    SHORT,
+    CHAR,
+    INT,
+    LONG,
+    FLOAT,
+    DOUBLE,
+    VOID,
+    BYTE_ARRAY,
+    ARRAY,
+    OBJECT;
+
+    static FieldKind of(Class<?> type) {
+      if (type.isPrimitive()) {
+        if (type.equals(boolean.class)) {
+          return BOOLEAN;
+        } else if (type.equals(byte.class)) {
+          return BYTE;
+        } else if (type.equals(short.class)) {
+          return SHORT;
+        } else if (type.equals(char.class)) {
+          return CHAR;
+        } else if (type.equals(int.class)) {
+          return INT;
+        } else if (type.equals(long.class)) {
+          return LONG;
+        } else if (type.equals(float.class)) {
+          return FLOAT;
+        } else if (type.equals(double.class)) {
+          return DOUBLE;
+        } else if (type.equals(void.class)) {
+          return VOID;
+        }
+        throw new UnsupportedOperationException("Unknown primitive type: " + type);
       }
-      Object arr = Array.newInstance(fieldType.getComponentType(), length);
-      UnsafeProvider.getInstance().putObject(obj, offset, arr);
-      int base = UnsafeProvider.getInstance().arrayBaseOffset(fieldType);
-      int scale = UnsafeProvider.getInstance().arrayIndexScale(fieldType);
-      if (scale == 0) {
-        throw new SerializationException(
-            "Failed to get index scale for field type " + fieldType + " for " + type);
-      }
-      for (int i = 0; i < length; ++i) {
-        // Deserializes type directly into array memory.
-        deserializeField(context, codedIn, arr, fieldType.getComponentType(), base + scale * i);
-      }
-    } else {
-      Object fieldValue = context.deserialize(codedIn);
-      if (fieldValue != null && !fieldType.isInstance(fieldValue)) {
-        throw new SerializationException(
-            "Field "
-                + fieldValue
-                + " was not instance of "
-                + fieldType
-                + " (was "
-                + fieldValue.getClass()
-                + ") for "
-                + type);
+      if (type.isArray()) {
+        return type.getComponentType().equals(byte.class) ? BYTE_ARRAY : ARRAY;
       }
-      UnsafeProvider.getInstance().putObject(obj, offset, fieldValue);
+      return OBJECT;
     }
   }
 
@@ -263,10 +357,12 @@ public class DynamicCodec implements ObjectCodec<Object> {
 
   private static class TypeAndOffset {
     public final Class<?> type;
+    public final FieldKind kind;
     public final long offset;
 
     public TypeAndOffset(Class<?> type, long offset) {
       this.type = type;
+      this.kind = FieldKind.of(type);
       this.offset = offset;
     }
   }
@@ -16,15 +16,14 @@ package com.google.devtools.build.lib.util;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 
-import com.google.common.io.ByteStreams;
 import com.google.devtools.build.lib.vfs.DigestHashFunction;
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.PathFragment;
 import com.google.protobuf.ByteString;
 import com.google.protobuf.CodedOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.security.DigestException;
-import java.security.DigestOutputStream;
 import java.security.MessageDigest;
 import java.util.Collection;
 import java.util.Map;
@@ -73,8 +72,31 @@ public final class Fingerprint {
     // strings to bytes without creating a whole bunch of garbage, which pays off.
     codedOut =
         CodedOutputStream.newInstance(
-            new DigestOutputStream(ByteStreams.nullOutputStream(), messageDigest),
-            /*bufferSize=*/ 1024);
+            new MessageDigestOutputStream(messageDigest), /*bufferSize=*/ 1024);
+  }
+
+  /**
+   * Feeds everything written to it into a {@link MessageDigest}.
+   *
+   * <p>Unlike a {@link java.security.DigestOutputStream} wrapping a null stream, each buffer
+   * flushed by {@link #codedOut} costs a single {@link MessageDigest#update} call.
+   */
+  private static final class MessageDigestOutputStream extends OutputStream {
+    private final MessageDigest messageDigest;
+
+    MessageDigestOutputStream(MessageDigest messageDigest) {
+      this.messageDigest = messageDigest;
+    }
+
+    @Override
+    public void write(int b) {
+      messageDigest.update((byte) b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      messageDigest.update(b, off, len);
+    }
   }
 
   public Fingerprint() {
@@ -304,14 +326,16 @@ public final class Fingerprint {
     return this;
   }
 
+  private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
   private static String hexDigest(byte[] digest) {
-    StringBuilder b = new StringBuilder(32);
+    char[] chars = new char[2 * digest.length];
     for (int i = 0; i < digest.length; i++) {
       int n = digest[i];
-      b.append("0123456789abcdef".charAt((n >> 4) & 0xF));
-      b.append("0123456789abcdef".charAt(n & 0xF));
+      chars[2 * i] = HEX_DIGITS[(n >> 4) & 0xF];
+      chars[2 * i + 1] = HEX_DIGITS[n & 0xF];
     }
-    return b.toString();
+    return new String(chars);
   }
 
   // -------- Convenience methods ----------------------------
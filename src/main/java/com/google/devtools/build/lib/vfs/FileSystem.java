@@ -19,7 +19,7 @@ import static java.nio.charset.StandardCharsets.ISO_8859_1;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
-import com.google.common.io.ByteSource;
+import com.google.common.hash.Hasher;
 import com.google.common.io.CharStreams;
 import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
 import java.io.FileNotFoundException;
@@ -37,6 +37,12 @@ import java.util.List;
 @ThreadSafe
 public abstract class FileSystem {
 
+  /** Read buffer size used by {@link #getDigest} for small files. */
+  private static final int SMALL_DIGEST_BUFFER_SIZE = 8 * 1024;
+
+  /** Read buffer size used by {@link #getDigest} once a file turns out to be larger. */
+  private static final int LARGE_DIGEST_BUFFER_SIZE = 256 * 1024;
+
   private final DigestHashFunction digestFunction;
 
   public FileSystem(DigestHashFunction digestFunction) {
@@ -318,12 +324,20 @@ public abstract class FileSystem {
    * @throws IOException if the digest could not be computed for any reason
    */
   protected byte[] getDigest(PathFragment path) throws IOException {
-    return new ByteSource() {
-      @Override
-      public InputStream openStream() throws IOException {
-        return getInputStream(path);
+    Hasher hasher = digestFunction.getHashFunction().newHasher();
+    byte[] buffer = new byte[SMALL_DIGEST_BUFFER_SIZE];
+    try (InputStream in = getInputStream(path)) {
+      int read;
+      while ((read = in.read(buffer)) != -1) {
+        hasher.putBytes(buffer, 0, read);
+        if (read == buffer.length && buffer.length < LARGE_DIGEST_BUFFER_SIZE) {
+          // The file doesn't fit into the initial buffer. Switch to larger reads for the rest of
+          // it, since for multi-GB outputs the per-read overhead is otherwise significant.
+          buffer = new byte[LARGE_DIGEST_BUFFER_SIZE];
+        }
       }
-    }.hash(digestFunction.getHashFunction()).asBytes();
+    }
+    return hasher.hash().asBytes();
   }
 
   /**
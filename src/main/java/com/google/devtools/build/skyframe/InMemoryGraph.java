@@ -52,6 +52,17 @@ public interface InMemoryGraph extends ProcessableGraph {
 
   Map<SkyKey, ? extends NodeEntry> getAllValuesMutable();
 
+  /**
+   * Trims memory held by done nodes that is only needed during evaluation. Intended to be called
+   * between evaluations. Returns the number of pending reverse dep operations released.
+   *
+   * @throws InterruptedException if interrupted before all nodes were visited; nodes visited so far
+   *     stay compacted
+   */
+  default long compact() throws InterruptedException {
+    return 0;
+  }
+
   static Map<SkyKey, SkyValue> transformDoneEntries(Map<SkyKey, ? extends NodeEntry> nodeMap) {
     return Collections.unmodifiableMap(
         Maps.filterValues(
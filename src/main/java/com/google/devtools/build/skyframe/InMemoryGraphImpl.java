@@ -92,16 +92,41 @@ public class InMemoryGraphImpl implements InMemoryGraph {
       @Nullable SkyKey requestor, Reason reason, Iterable<SkyKey> keys) {
     Map<SkyKey, NodeEntry> result = CompactHashMap.createWithExpectedSize(Iterables.size(keys));
     for (SkyKey key : keys) {
-      result.put(key, nodeMap.computeIfAbsent(key, newNodeEntryFunction));
+      result.put(key, getOrCreate(key));
     }
     return result;
   }
 
+  /**
+   * Returns the entry for {@code key}, creating it if necessary. Most requested keys already have
+   * an entry (every parent of a shared dep asks for it), so try a lock-free read first:
+   * {@link ConcurrentHashMap#computeIfAbsent} locks the key's bin even when the key is present,
+   * which makes heavily shared keys a point of contention between evaluation threads.
+   */
+  private NodeEntry getOrCreate(SkyKey key) {
+    NodeEntry entry = nodeMap.get(key);
+    return entry != null ? entry : nodeMap.computeIfAbsent(key, newNodeEntryFunction);
+  }
+
   @Override
   public DepsReport analyzeDepsDoneness(SkyKey parent, Collection<SkyKey> deps) {
     return DepsReport.NO_INFORMATION;
   }
 
+  @Override
+  public long compact() throws InterruptedException {
+    long released = 0;
+    for (NodeEntry entry : nodeMap.values()) {
+      if (Thread.interrupted()) {
+        throw new InterruptedException();
+      }
+      if (entry instanceof InMemoryNodeEntry) {
+        released += ((InMemoryNodeEntry) entry).compact();
+      }
+    }
+    return released;
+  }
+
   @Override
   public Map<SkyKey, SkyValue> getValues() {
     return Collections.unmodifiableMap(
@@ -56,6 +56,8 @@ public final class InMemoryMemoizingEvaluator implements MemoizingEvaluator {
   // Not final only for testing.
   private InMemoryGraph graph;
   private IntVersion lastGraphVersion = null;
+  // The graph version of the last compaction that visited every node.
+  @Nullable private IntVersion lastCompactedGraphVersion = null;
 
   // State related to invalidation and deletion.
   private Set<SkyKey> valuesToDelete = new LinkedHashSet<>();
@@ -292,6 +294,18 @@ public final class InMemoryMemoizingEvaluator implements MemoizingEvaluator {
     eventHandler.post(new SkyframeGraphStatsEvent(graph.getValues().size()));
   }
 
+  @Override
+  public long compactGraph() throws InterruptedException {
+    // Only evaluations leave pending state behind, so there's nothing to do if none happened since
+    // the last complete pass.
+    if (lastGraphVersion == null || lastGraphVersion.equals(lastCompactedGraphVersion)) {
+      return 0;
+    }
+    long released = graph.compact();
+    lastCompactedGraphVersion = lastGraphVersion;
+    return released;
+  }
+
   @Override
   public Map<SkyKey, SkyValue> getValues() {
     return graph.getValues();
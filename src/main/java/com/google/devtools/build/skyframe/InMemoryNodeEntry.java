@@ -369,6 +369,18 @@ public class InMemoryNodeEntry implements NodeEntry {
     return wasEvaluating ? DependencyState.ALREADY_EVALUATING : DependencyState.NEEDS_SCHEDULING;
   }
 
+  /**
+   * Releases memory that this entry only needed while it was being evaluated or checked, such as
+   * pending reverse dep operations. Does nothing unless the entry is done. Returns the number of
+   * pending reverse dep operations that were consolidated.
+   */
+  public synchronized int compact() {
+    if (!isDone() || !keepReverseDeps()) {
+      return 0;
+    }
+    return ReverseDepsUtility.compact(this);
+  }
+
   /** Sets {@link #reverseDeps}. Does not alter {@link #reverseDepsDataToConsolidate}. */
   synchronized void setSingleReverseDepForReverseDepsUtil(SkyKey reverseDep) {
     this.reverseDeps = reverseDep;
@@ -112,6 +112,17 @@ public interface MemoizingEvaluator {
    */
   default void postLoggingStats(ExtendedEventHandler eventHandler) {}
 
+  /**
+   * Releases memory held by the graph that is only needed while evaluating. Called while the server
+   * is idle, never concurrently with an evaluation. Returns the number of pending reverse dep
+   * operations released, or 0 if the graph has not been evaluated since it was last compacted.
+   * Stops early with an {@link InterruptedException} when interrupted, e.g. because a command
+   * arrived.
+   */
+  default long compactGraph() throws InterruptedException {
+    return 0;
+  }
+
   /**
    * Returns the done (without error) values in the graph.
    *
@@ -160,6 +160,23 @@ abstract class ReverseDepsUtility {
     }
   }
 
+  /**
+   * Consolidates any pending reverse dep operations of a done entry and trims its reverse deps list
+   * to its size, so that nothing sized for an evaluation stays around between evaluations. Returns
+   * the number of pending operations that were consolidated, each of which held a slot in a list
+   * that is now released.
+   */
+  static int compact(InMemoryNodeEntry entry) {
+    List<Object> dataToConsolidate = entry.getReverseDepsDataToConsolidateForReverseDepsUtil();
+    int consolidated = dataToConsolidate == null ? 0 : dataToConsolidate.size();
+    consolidateData(entry);
+    Object reverseDeps = entry.getReverseDepsRawForReverseDepsUtil();
+    if (reverseDeps instanceof ArrayList) {
+      ((ArrayList<?>) reverseDeps).trimToSize();
+    }
+    return consolidated;
+  }
+
   static Set<SkyKey> returnNewElements(InMemoryNodeEntry entry, OpToStoreBare opToStoreBare) {
     return consolidateDataAndReturnNewElements(entry, false, opToStoreBare);
   }
@@ -0,0 +1,143 @@
+// Copyright 2021 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.buildeventstream.transports;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.primitives.Bytes;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos;
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos.BuildStarted;
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos.Progress;
+import com.google.devtools.build.lib.buildeventstream.LocalFilesArtifactUploader;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link FileTransport.SequentialWriter}. */
+@RunWith(JUnit4.class)
+public class FileTransportTest {
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+  private final ScheduledExecutorService timeoutExecutor =
+      Executors.newSingleThreadScheduledExecutor();
+
+  @After
+  public void shutDownExecutor() {
+    timeoutExecutor.shutdownNow();
+  }
+
+  @Test
+  public void testProducerBlocksWhileBufferIsFull() throws Exception {
+    File output = tmp.newFile();
+    BufferedOutputStream outputStream =
+        new BufferedOutputStream(Files.newOutputStream(Paths.get(output.getAbsolutePath())));
+    FileTransport.SequentialWriter writer =
+        new FileTransport.SequentialWriter(
+            outputStream,
+            BuildEventStreamProtos.BuildEvent::toByteArray,
+            new LocalFilesArtifactUploader(),
+            timeoutExecutor,
+            /*maxBufferedBytes=*/ 1);
+
+    BuildEventStreamProtos.BuildEvent started =
+        BuildEventStreamProtos.BuildEvent.newBuilder()
+            .setStarted(BuildStarted.newBuilder().setCommand("build"))
+            .build();
+    BuildEventStreamProtos.BuildEvent progress =
+        BuildEventStreamProtos.BuildEvent.newBuilder()
+            .setProgress(Progress.newBuilder().setStdout("hello"))
+            .build();
+
+    // The first event is still pending, so the writer can't make progress past it.
+    SettableFuture<BuildEventStreamProtos.BuildEvent> head = SettableFuture.create();
+    writer.pendingWrites.add(head);
+    writer.onEventReady(progress);
+    writer.pendingWrites.add(Futures.immediateFuture(progress));
+    assertThat(writer.getBufferedBytes()).isEqualTo(progress.getSerializedSize());
+
+    CountDownLatch producerStarted = new CountDownLatch(1);
+    CountDownLatch unblocked = new CountDownLatch(1);
+    Thread producer =
+        new Thread(
+            () -> {
+              try {
+                producerStarted.countDown();
+                writer.awaitBufferCapacity();
+                unblocked.countDown();
+              } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+              }
+            });
+    producer.start();
+    producerStarted.await();
+    // The producer parks on the writer's monitor once it sees the buffer is full.
+    while (producer.getState() != Thread.State.WAITING) {
+      Thread.yield();
+    }
+    assertThat(unblocked.getCount()).isEqualTo(1);
+
+    writer.onEventReady(started);
+    head.set(started);
+    assertThat(unblocked.await(10, TimeUnit.SECONDS)).isTrue();
+    producer.join();
+
+    writer.close().get();
+    assertThat(writer.getBufferedBytes()).isEqualTo(0);
+    try (InputStream in = new FileInputStream(output)) {
+      assertThat(ByteStreams.toByteArray(in))
+          .isEqualTo(Bytes.concat(started.toByteArray(), progress.toByteArray()));
+    }
+  }
+
+  @Test
+  public void testProducerIsReleasedOnClose() throws Exception {
+    File output = tmp.newFile();
+    BufferedOutputStream outputStream =
+        new BufferedOutputStream(Files.newOutputStream(Paths.get(output.getAbsolutePath())));
+    FileTransport.SequentialWriter writer =
+        new FileTransport.SequentialWriter(
+            outputStream,
+            BuildEventStreamProtos.BuildEvent::toByteArray,
+            new LocalFilesArtifactUploader(),
+            timeoutExecutor,
+            /*maxBufferedBytes=*/ 1);
+
+    // Pretend an event got buffered but was then dropped, so its bytes are never released.
+    writer.onEventReady(
+        BuildEventStreamProtos.BuildEvent.newBuilder()
+            .setProgress(Progress.newBuilder().setStdout("lost"))
+            .build());
+    writer.close().get();
+
+    // Must not block forever.
+    writer.awaitBufferCapacity();
+  }
+}
@@ -18,14 +18,25 @@ import static com.google.common.truth.Truth.assertThat;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.devtools.build.lib.actions.Artifact;
+import com.google.devtools.build.lib.actions.ArtifactRoot;
 import com.google.devtools.build.lib.actions.FilesetOutputSymlink;
 import com.google.devtools.build.lib.actions.HasDigest;
+import com.google.devtools.build.lib.actions.util.ActionsTestUtil;
 import com.google.devtools.build.lib.shell.Command;
 import com.google.devtools.build.lib.vfs.DigestHashFunction;
+import com.google.devtools.build.lib.vfs.Dirent;
 import com.google.devtools.build.lib.vfs.FileSystem;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.Root;
 import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -54,6 +65,107 @@ public final class SymlinkTreeHelperTest {
     assertThat(commandLine[2]).isEqualTo("output/MANIFEST");
   }
 
+  @Test
+  public void createSymlinksDirectlyUpdatesExistingTree() throws Exception {
+    Path execRoot = fs.getPath("/my/workspace");
+    ArtifactRoot root = ArtifactRoot.asSourceRoot(Root.fromPath(execRoot));
+    Artifact a = ActionsTestUtil.createArtifact(root, "a");
+    Artifact b = ActionsTestUtil.createArtifact(root, "b");
+    Path runfiles = execRoot.getRelative("foo.runfiles");
+    SymlinkTreeHelper helper =
+        new SymlinkTreeHelper(execRoot.getRelative("foo.runfiles_manifest"), runfiles, false);
+
+    Map<PathFragment, Artifact> symlinks = new HashMap<>();
+    symlinks.put(PathFragment.create("ws/unchanged"), a);
+    symlinks.put(PathFragment.create("ws/changed"), a);
+    symlinks.put(PathFragment.create("ws/removed"), a);
+    symlinks.put(PathFragment.create("ws/empty"), null);
+    symlinks.put(PathFragment.create("ws/was_link/file"), a);
+    helper.createSymlinksDirectly(runfiles, symlinks);
+    // A directory that was a symlink on disk must be replaced, not written through.
+    runfiles.getRelative("ws/was_link").deleteTree();
+    runfiles.getRelative("ws/was_link").createSymbolicLink(execRoot.asFragment());
+
+    symlinks.put(PathFragment.create("ws/changed"), b);
+    symlinks.remove(PathFragment.create("ws/removed"));
+    symlinks.put(PathFragment.create("ws/added/file"), b);
+    helper.createSymlinksDirectly(runfiles, symlinks);
+
+    Path ws = runfiles.getRelative("ws");
+    assertThat(ws.getDirectoryEntries())
+        .containsExactly(
+            ws.getChild("unchanged"),
+            ws.getChild("changed"),
+            ws.getChild("empty"),
+            ws.getChild("was_link"),
+            ws.getChild("added"));
+    assertThat(ws.getChild("unchanged").readSymbolicLink()).isEqualTo(a.getPath().asFragment());
+    assertThat(ws.getChild("changed").readSymbolicLink()).isEqualTo(b.getPath().asFragment());
+    assertThat(ws.getChild("empty").isFile()).isTrue();
+    assertThat(ws.getChild("was_link").isSymbolicLink()).isFalse();
+    assertThat(ws.getRelative("was_link/file").readSymbolicLink())
+        .isEqualTo(a.getPath().asFragment());
+    assertThat(ws.getRelative("added/file").readSymbolicLink())
+        .isEqualTo(b.getPath().asFragment());
+    assertThat(execRoot.getChild("file").exists()).isFalse();
+  }
+
+  @Test
+  public void createSymlinksDirectlyHandlesUnreliableDirentTypes() throws Exception {
+    List<PathFragment> deleted = new ArrayList<>();
+    FileSystem untypedDirentsFs =
+        new InMemoryFileSystem(DigestHashFunction.SHA256) {
+          // Like readdir() on a file system that doesn't report d_type: each entry is statted
+          // following symlinks, so symlinks are reported as FILE, DIRECTORY or UNKNOWN.
+          @Override
+          protected Collection<Dirent> readdir(PathFragment path, boolean followSymlinks)
+              throws IOException {
+            return super.readdir(path, /*followSymlinks=*/ true);
+          }
+
+          @Override
+          protected boolean delete(PathFragment path) throws IOException {
+            deleted.add(path);
+            return super.delete(path);
+          }
+        };
+    Path execRoot = untypedDirentsFs.getPath("/my/workspace");
+    ArtifactRoot root = ArtifactRoot.asSourceRoot(Root.fromPath(execRoot));
+    Artifact existing = ActionsTestUtil.createArtifact(root, "existing");
+    Artifact dangling = ActionsTestUtil.createArtifact(root, "dangling");
+    execRoot.createDirectoryAndParents();
+    FileSystemUtils.createEmptyFile(existing.getPath());
+    Path runfiles = execRoot.getRelative("foo.runfiles");
+    SymlinkTreeHelper helper =
+        new SymlinkTreeHelper(execRoot.getRelative("foo.runfiles_manifest"), runfiles, false);
+
+    Map<PathFragment, Artifact> symlinks = new HashMap<>();
+    symlinks.put(PathFragment.create("ws/to_file"), existing);
+    symlinks.put(PathFragment.create("ws/to_missing"), dangling);
+    symlinks.put(PathFragment.create("ws/dir/file"), existing);
+    symlinks.put(PathFragment.create("ws/was_link/file"), existing);
+    helper.createSymlinksDirectly(runfiles, symlinks);
+    Path ws = runfiles.getRelative("ws");
+    // Reported as DIRECTORY, but must still be replaced rather than written through.
+    ws.getChild("was_link").deleteTree();
+    ws.getChild("was_link").createSymbolicLink(execRoot.asFragment());
+    deleted.clear();
+
+    helper.createSymlinksDirectly(runfiles, symlinks);
+
+    assertThat(deleted).containsExactly(ws.getChild("was_link").asFragment());
+    assertThat(ws.getChild("to_file").readSymbolicLink())
+        .isEqualTo(existing.getPath().asFragment());
+    assertThat(ws.getChild("to_missing").readSymbolicLink())
+        .isEqualTo(dangling.getPath().asFragment());
+    assertThat(ws.getRelative("dir/file").readSymbolicLink())
+        .isEqualTo(existing.getPath().asFragment());
+    assertThat(ws.getChild("was_link").isSymbolicLink()).isFalse();
+    assertThat(ws.getRelative("was_link/file").readSymbolicLink())
+        .isEqualTo(existing.getPath().asFragment());
+    assertThat(execRoot.getChild("file").exists()).isFalse();
+  }
+
   @Test
   public void readManifest() {
     PathFragment execRoot = PathFragment.create("/my/workspace");
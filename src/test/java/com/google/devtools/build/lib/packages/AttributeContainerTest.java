@@ -16,6 +16,11 @@ package com.google.devtools.build.lib.packages;
 import static com.google.common.truth.Truth.assertThat;
 import static org.junit.Assert.assertThrows;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.ImmutableSortedSet;
 import com.google.devtools.build.lib.packages.AttributeContainer.Mutable;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -33,6 +38,7 @@ public class AttributeContainerTest {
 
   private static final int ATTR1 = 2;
   private static final int ATTR2 = 6;
+  private static final int ATTR3 = 8;
 
   @Test
   public void testAttributeSettingAndRetrieval() {
@@ -206,4 +212,93 @@ public class AttributeContainerTest {
     container.getRawAttributeValues().set(0, "foo");
     assertThat(container.getRawAttributeValues()).containsExactly("hi");
   }
+
+  @Test
+  public void testDeduperSharesEqualValues() {
+    AttributeContainer.Deduper deduper = new AttributeContainer.Deduper();
+    Object unshareable = new Object();
+    AttributeContainer first =
+        freezeWith(deduper, ImmutableList.of("a", "b"), new String("tag"), unshareable);
+    AttributeContainer second =
+        freezeWith(deduper, ImmutableList.of("a", "b"), new String("tag"), new Object());
+
+    assertThat(second.getAttributeValue(ATTR1)).isSameInstanceAs(first.getAttributeValue(ATTR1));
+    assertThat(second.getAttributeValue(ATTR2)).isSameInstanceAs(first.getAttributeValue(ATTR2));
+    assertThat(second.getAttributeValue(ATTR3)).isNotSameInstanceAs(unshareable);
+    assertThat(second.isAttributeValueExplicitlySpecified(ATTR1)).isTrue();
+    assertThat(second.isAttributeValueExplicitlySpecified(ATTR2)).isFalse();
+    assertThat(deduper.getSharedValueCount()).isEqualTo(2);
+    assertThat(deduper.getSharedStateCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void testDeduperDoesNotShareDifferentExplicitness() {
+    AttributeContainer.Deduper deduper = new AttributeContainer.Deduper();
+    Mutable explicit = new Mutable(10);
+    explicit.setAttributeValue(ATTR1, "value", /*explicit=*/ true);
+    Mutable implicit = new Mutable(10);
+    implicit.setAttributeValue(ATTR1, "value", /*explicit=*/ false);
+
+    AttributeContainer frozenExplicit = explicit.freeze(deduper);
+    AttributeContainer frozenImplicit = implicit.freeze(deduper);
+
+    assertThat(frozenExplicit.isAttributeValueExplicitlySpecified(ATTR1)).isTrue();
+    assertThat(frozenImplicit.isAttributeValueExplicitlySpecified(ATTR1)).isFalse();
+    assertThat(deduper.getSharedStateCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void testDeduperDoesNotShareValuesWithDifferentOrder() {
+    AttributeContainer.Deduper deduper = new AttributeContainer.Deduper();
+    ImmutableMap<String, String> ab = ImmutableMap.of("A", "1", "B", "2");
+    ImmutableMap<String, String> ba = ImmutableMap.of("B", "2", "A", "1");
+    ImmutableSet<String> set = ImmutableSet.of("x", "y");
+    ImmutableList<ImmutableMap<String, String>> nested = ImmutableList.of(ba);
+    AttributeContainer first = freezeWith(deduper, ab, set, ImmutableList.of(ab));
+    AttributeContainer second = freezeWith(deduper, ba, ImmutableSet.of("y", "x"), nested);
+
+    assertThat(second.getAttributeValue(ATTR1)).isSameInstanceAs(ba);
+    assertThat(second.getAttributeValue(ATTR2)).isNotSameInstanceAs(set);
+    assertThat((Iterable<?>) second.getAttributeValue(ATTR2)).containsExactly("y", "x").inOrder();
+    assertThat(second.getAttributeValue(ATTR3)).isSameInstanceAs(nested);
+
+    AttributeContainer third = freezeWith(deduper, ImmutableMap.of("A", "1", "B", "2"), "", "");
+    assertThat(third.getAttributeValue(ATTR1)).isSameInstanceAs(first.getAttributeValue(ATTR1));
+  }
+
+  @Test
+  public void testDeduperDoesNotShareSortedValuesWithDifferentComparators() {
+    AttributeContainer.Deduper deduper = new AttributeContainer.Deduper();
+    // Equal and iterating in the same order, but sorting anything added differently.
+    ImmutableSortedSet<String> natural = ImmutableSortedSet.of("a", "b");
+    ImmutableSortedSet<String> caseInsensitive =
+        ImmutableSortedSet.orderedBy(String.CASE_INSENSITIVE_ORDER).add("a", "b").build();
+    ImmutableSortedMap<String, String> naturalMap = ImmutableSortedMap.of("a", "1");
+    ImmutableSortedMap<String, String> caseInsensitiveMap =
+        ImmutableSortedMap.<String, String>orderedBy(String.CASE_INSENSITIVE_ORDER)
+            .put("a", "1")
+            .build();
+    AttributeContainer first = freezeWith(deduper, natural, naturalMap, ImmutableList.of(natural));
+    AttributeContainer second =
+        freezeWith(
+            deduper, caseInsensitive, caseInsensitiveMap, ImmutableList.of(caseInsensitive));
+
+    assertThat(second.getAttributeValue(ATTR1)).isSameInstanceAs(caseInsensitive);
+    assertThat(second.getAttributeValue(ATTR2)).isSameInstanceAs(caseInsensitiveMap);
+    assertThat(second.getAttributeValue(ATTR3)).isNotSameInstanceAs(first.getAttributeValue(ATTR3));
+    assertThat(deduper.getSharedValueCount()).isEqualTo(0);
+
+    AttributeContainer third = freezeWith(deduper, ImmutableSortedSet.of("a", "b"), "", "");
+    assertThat(third.getAttributeValue(ATTR1)).isSameInstanceAs(natural);
+    assertThat(deduper.getSharedValueCount()).isEqualTo(1);
+  }
+
+  private static AttributeContainer freezeWith(
+      AttributeContainer.Deduper deduper, Object value1, Object value2, Object value3) {
+    Mutable container = new Mutable(10);
+    container.setAttributeValue(ATTR1, value1, /*explicit=*/ true);
+    container.setAttributeValue(ATTR2, value2, /*explicit=*/ false);
+    container.setAttributeValue(ATTR3, value3, /*explicit=*/ false);
+    return container.freeze(deduper);
+  }
 }
@@ -0,0 +1,146 @@
+// Copyright 2021 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.query2.query.output;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.devtools.build.lib.packages.Target;
+import com.google.devtools.build.lib.packages.util.PackageLoadingTestCase;
+import com.google.devtools.build.lib.query2.engine.OutputFormatterCallback;
+import com.google.devtools.build.lib.query2.proto.proto2api.Build;
+import com.google.devtools.build.lib.query2.query.aspectresolvers.AspectResolver;
+import com.google.devtools.build.lib.query2.query.aspectresolvers.ConservativeAspectResolver;
+import com.google.devtools.build.lib.vfs.DigestHashFunction;
+import com.google.devtools.common.options.Options;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.Nullable;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link StreamedProtoOutputFormatter}. */
+@RunWith(JUnit4.class)
+public class StreamedProtoOutputFormatterTest extends PackageLoadingTestCase {
+
+  private static final int RESULT_SIZE =
+      StreamedProtoOutputFormatter.MAX_PENDING_CHUNKS
+              * StreamedProtoOutputFormatter.TARGETS_PER_CHUNK
+          + 1;
+
+  @Test
+  public void testOutputMatchesSequentialSerialization() throws Exception {
+    List<Target> targets = getManyTargets();
+    StreamedProtoOutputFormatter formatter = new StreamedProtoOutputFormatter();
+    setOptions(formatter);
+
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    for (Target target : targets) {
+      formatter.toTargetProtoBuffer(target).writeDelimitedTo(expected);
+    }
+
+    ByteArrayOutputStream actual = new ByteArrayOutputStream();
+    OutputFormatterCallback<Target> callback =
+        formatter.createPostFactoStreamCallback(actual, Options.getDefaults(QueryOptions.class));
+    callback.start();
+    try {
+      callback.processOutput(targets);
+    } finally {
+      callback.close(/*failFast=*/ false);
+    }
+
+    assertThat(actual.toByteArray()).isEqualTo(expected.toByteArray());
+  }
+
+  @Test
+  public void testWorkerFailureIsPropagatedAndCancelsPendingChunks() throws Exception {
+    List<Target> targets = getManyTargets();
+    Target failingTarget = targets.get(0);
+    AtomicInteger blockedWorkers = new AtomicInteger();
+    Semaphore interruptedWorkers = new Semaphore(0);
+    CountDownLatch neverReleased = new CountDownLatch(1);
+    StreamedProtoOutputFormatter formatter =
+        new StreamedProtoOutputFormatter() {
+          @Override
+          Build.Target toTargetProtoBuffer(
+              Target target, Object extraDataForAttrHash, @Nullable AspectResolver resolver)
+              throws InterruptedException {
+            if (target == failingTarget) {
+              throw new InterruptedException("injected");
+            }
+            blockedWorkers.incrementAndGet();
+            try {
+              neverReleased.await();
+            } catch (InterruptedException e) {
+              interruptedWorkers.release();
+              throw e;
+            }
+            throw new IllegalStateException("Latch was released");
+          }
+        };
+    setOptions(formatter);
+
+    OutputFormatterCallback<Target> callback =
+        formatter.createPostFactoStreamCallback(
+            new ByteArrayOutputStream(), Options.getDefaults(QueryOptions.class));
+    callback.start();
+    try {
+      InterruptedException e =
+          assertThrows(InterruptedException.class, () -> callback.processOutput(targets));
+      assertThat(e).hasMessageThat().isEqualTo("injected");
+      // Every chunk that got as far as a worker thread must have been interrupted; the others
+      // were cancelled before they started.
+      int blocked = blockedWorkers.get();
+      assertThat(interruptedWorkers.tryAcquire(blocked, 1, TimeUnit.MINUTES)).isTrue();
+      assertThat(blockedWorkers.get()).isEqualTo(blocked);
+    } finally {
+      callback.close(/*failFast=*/ true);
+    }
+  }
+
+  private static void setOptions(StreamedProtoOutputFormatter formatter) {
+    formatter.setOptions(
+        Options.getDefaults(QueryOptions.class),
+        new ConservativeAspectResolver(),
+        DigestHashFunction.SHA256.getHashFunction());
+  }
+
+  /** Returns rules, generated files and source files, repeated to fill many chunks. */
+  private List<Target> getManyTargets() throws Exception {
+    scratch.file(
+        "pkg/BUILD",
+        "genrule(name = 'a', srcs = ['a.in'], outs = ['a.out'], cmd = 'touch $@')",
+        "genrule(name = 'b', srcs = [':a'], outs = ['b.out'], cmd = 'touch $@')",
+        "filegroup(name = 'c', srcs = ['c.txt', ':b'])");
+    ImmutableList<Target> packageTargets =
+        ImmutableList.copyOf(getTarget("//pkg:a").getPackage().getTargets().values());
+    List<Target> targets = new ArrayList<>(RESULT_SIZE);
+    Iterables.addAll(
+        targets,
+        Iterables.limit(
+            Iterables.concat(
+                Collections.nCopies(RESULT_SIZE / packageTargets.size() + 1, packageTargets)),
+            RESULT_SIZE));
+    return targets;
+  }
+}
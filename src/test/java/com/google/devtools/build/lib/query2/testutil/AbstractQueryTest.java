@@ -1017,6 +1017,26 @@ public abstract class AbstractQueryTest<T> {
     runNodepDepsTest(/*expectVisibilityDep=*/ false, Setting.NO_NODEP_DEPS);
   }
 
+  @Test
+  public void testRdepsWithDependencyFilter() throws Exception {
+    writeFile(
+        "foo/BUILD",
+        "sh_library(name = 't1', deps = [':t2'], visibility = [':pg'])",
+        "sh_library(name = 't2', visibility = [':pg'])",
+        "sh_library(name = 't3', deps = [':t1', ':t2'])",
+        "package_group(name = 'pg')");
+
+    assertThat(eval("rdeps(//foo:all, //foo:pg, 1)"))
+        .isEqualTo(eval("//foo:pg + //foo:t1 + //foo:t2"));
+
+    helper.setQuerySettings(Setting.NO_NODEP_DEPS);
+    assertThat(eval("rdeps(//foo:all, //foo:pg, 1)")).isEqualTo(eval("//foo:pg"));
+    assertThat(eval("rdeps(//foo:all, //foo:pg + //foo:t2, 1)"))
+        .isEqualTo(eval("//foo:pg + //foo:t1 + //foo:t2 + //foo:t3"));
+    assertThat(eval("rdeps(//foo:all, //foo:t1 + //foo:t2)"))
+        .isEqualTo(eval("//foo:t1 + //foo:t2 + //foo:t3"));
+  }
+
   @Test
   public void testCycleInStarlark() throws Exception {
     runCycleInStarlarkTest(/*checkFailureDetail=*/ true);
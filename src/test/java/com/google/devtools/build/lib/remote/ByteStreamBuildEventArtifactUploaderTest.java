@@ -356,6 +356,47 @@ public class ByteStreamBuildEventArtifactUploaderTest {
     assertThat(pathConverter.apply(localFile)).contains(localDigest.getHash());
   }
 
+  @Test
+  public void knownRemoteDigestsAreNotQueriedAgain() throws Exception {
+    // Test that a file referenced by several build events is only looked up and uploaded once.
+
+    // arrange
+    Path file = fs.getPath("/file");
+    FileSystemUtils.writeContent(file, StandardCharsets.UTF_8, "foo bar");
+    Digest digest = DIGEST_UTIL.compute(file);
+    Path copy = fs.getPath("/copy");
+    FileSystemUtils.writeContent(copy, StandardCharsets.UTF_8, "foo bar");
+
+    MissingDigestsFinder digestQuerier = Mockito.spy(AllMissingDigestsFinder.INSTANCE);
+    ByteStreamUploader uploader = Mockito.mock(ByteStreamUploader.class);
+    when(uploader.uploadBlobAsync(any(), any(Digest.class), any(), anyBoolean()))
+        .thenReturn(Futures.immediateFuture(null));
+    ByteStreamBuildEventArtifactUploader artifactUploader =
+        newArtifactUploader(uploader, digestQuerier);
+
+    // act
+    PathConverter first =
+        artifactUploader
+            .upload(ImmutableMap.of(file, new LocalFile(file, LocalFileType.OUTPUT)))
+            .get();
+    PathConverter second =
+        artifactUploader
+            .upload(
+                ImmutableMap.of(
+                    file,
+                    new LocalFile(file, LocalFileType.OUTPUT),
+                    copy,
+                    new LocalFile(copy, LocalFileType.OUTPUT)))
+            .get();
+
+    // assert
+    verify(digestQuerier).findMissingDigests(any(), any());
+    verify(uploader).uploadBlobAsync(any(), eq(digest), any(), anyBoolean());
+    assertThat(first.apply(file)).contains(digest.getHash());
+    assertThat(second.apply(file)).contains(digest.getHash());
+    assertThat(second.apply(copy)).contains(digest.getHash());
+  }
+
   /** Returns a remote artifact and puts its metadata into the action input map. */
   private Artifact createRemoteArtifact(
       String pathFragment, String contents, ActionInputMap inputs) {
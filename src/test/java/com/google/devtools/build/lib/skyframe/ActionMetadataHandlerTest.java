@@ -14,6 +14,7 @@
 package com.google.devtools.build.lib.skyframe;
 
 import static com.google.common.truth.Truth.assertThat;
+import static java.util.concurrent.TimeUnit.MINUTES;
 import static org.junit.Assert.assertThrows;
 import static org.junit.Assert.fail;
 
@@ -46,7 +47,15 @@ import com.google.devtools.build.lib.vfs.Root;
 import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -89,6 +98,14 @@ public final class ActionMetadataHandlerTest {
 
   private ActionMetadataHandler createHandler(
       ActionInputMap inputMap, boolean forInputDiscovery, ImmutableSet<Artifact> outputs) {
+    return createHandler(inputMap, forInputDiscovery, outputs, ForkJoinPool.commonPool());
+  }
+
+  private ActionMetadataHandler createHandler(
+      ActionInputMap inputMap,
+      boolean forInputDiscovery,
+      ImmutableSet<Artifact> outputs,
+      Executor treeChildMetadataExecutor) {
     return ActionMetadataHandler.create(
         inputMap,
         forInputDiscovery,
@@ -98,7 +115,8 @@ public final class ActionMetadataHandlerTest {
         ArtifactPathResolver.IDENTITY,
         execRoot.asFragment(),
         derivedPathPrefix,
-        /*expandedFilesets=*/ ImmutableMap.of());
+        /*expandedFilesets=*/ ImmutableMap.of(),
+        treeChildMetadataExecutor);
   }
 
   @Test
@@ -277,6 +295,125 @@ public final class ActionMetadataHandlerTest {
     assertThat(chmodCalls).isEmpty();
   }
 
+  @Test
+  public void createsLargeTreeArtifactValueFromFilesystem() throws Exception {
+    int numChildren = 2000; // Enough to have the children's metadata constructed in parallel.
+    for (int i = 0; i < numChildren; i++) {
+      scratch.file("/output/bin/foo/bar/dir" + (i % 10) + "/child" + i, "child" + i);
+    }
+    SpecialArtifact treeArtifact =
+        ActionsTestUtil.createTreeArtifactWithGeneratingAction(
+            outputRoot, PathFragment.create("bin/foo/bar"));
+
+    ActionMetadataHandler handler =
+        createHandler(
+            new ActionInputMap(0),
+            /*forInputDiscovery=*/ false,
+            /*outputs=*/ ImmutableSet.of(treeArtifact));
+
+    handler.getMetadata(treeArtifact);
+    TreeArtifactValue tree = handler.getOutputStore().getTreeArtifactData(treeArtifact);
+
+    assertThat(tree.getChildValues()).hasSize(numChildren);
+    TreeFileArtifact child = TreeFileArtifact.createTreeOutput(treeArtifact, "dir7/child1237");
+    assertThat(tree.getChildValues().get(child).getSize()).isEqualTo("child1237\n".length());
+    assertThat(handler.getMetadata(child)).isEqualTo(tree.getChildValues().get(child));
+  }
+
+  @Test
+  public void createsLargeTreeArtifactValueOnCallingThreadIfExecutorNeverRunsHelpers()
+      throws Exception {
+    int numChildren = 2000;
+    for (int i = 0; i < numChildren; i++) {
+      scratch.file("/output/bin/foo/bar/child" + i, "child" + i);
+    }
+    SpecialArtifact treeArtifact =
+        ActionsTestUtil.createTreeArtifactWithGeneratingAction(
+            outputRoot, PathFragment.create("bin/foo/bar"));
+    // Simulates an executor saturated by other actions: helpers are queued but never run.
+    List<Runnable> queuedHelpers = new ArrayList<>();
+
+    ActionMetadataHandler handler =
+        createHandler(
+            new ActionInputMap(0),
+            /*forInputDiscovery=*/ false,
+            /*outputs=*/ ImmutableSet.of(treeArtifact),
+            queuedHelpers::add);
+
+    handler.getMetadata(treeArtifact);
+
+    assertThat(queuedHelpers).isNotEmpty();
+    assertThat(handler.getOutputStore().getTreeArtifactData(treeArtifact).getChildValues())
+        .hasSize(numChildren);
+  }
+
+  @Test
+  public void createsLargeTreeArtifactValueOnCallingThreadIfExecutorRejectsHelpers()
+      throws Exception {
+    int numChildren = 2000;
+    for (int i = 0; i < numChildren; i++) {
+      scratch.file("/output/bin/foo/bar/child" + i, "child" + i);
+    }
+    SpecialArtifact treeArtifact =
+        ActionsTestUtil.createTreeArtifactWithGeneratingAction(
+            outputRoot, PathFragment.create("bin/foo/bar"));
+
+    ActionMetadataHandler handler =
+        createHandler(
+            new ActionInputMap(0),
+            /*forInputDiscovery=*/ false,
+            /*outputs=*/ ImmutableSet.of(treeArtifact),
+            helper -> {
+              throw new RejectedExecutionException();
+            });
+
+    handler.getMetadata(treeArtifact);
+
+    assertThat(handler.getOutputStore().getTreeArtifactData(treeArtifact).getChildValues())
+        .hasSize(numChildren);
+  }
+
+  @Test
+  public void createsManyLargeTreeArtifactValuesConcurrentlyWithSmallExecutor() throws Exception {
+    int numTrees = 16;
+    int numChildren = 1000;
+    List<SpecialArtifact> treeArtifacts = new ArrayList<>();
+    for (int tree = 0; tree < numTrees; tree++) {
+      for (int i = 0; i < numChildren; i++) {
+        scratch.file("/output/bin/foo/tree" + tree + "/child" + i, "child" + i);
+      }
+      treeArtifacts.add(
+          ActionsTestUtil.createTreeArtifactWithGeneratingAction(
+              outputRoot, PathFragment.create("bin/foo/tree" + tree)));
+    }
+    // Far fewer helper threads than concurrent actions, as with a high --jobs.
+    ExecutorService helperExecutor = Executors.newSingleThreadExecutor();
+    ExecutorService actionExecutor = Executors.newFixedThreadPool(numTrees);
+    try {
+      List<Future<TreeArtifactValue>> trees = new ArrayList<>();
+      for (SpecialArtifact treeArtifact : treeArtifacts) {
+        trees.add(
+            actionExecutor.submit(
+                () -> {
+                  ActionMetadataHandler handler =
+                      createHandler(
+                          new ActionInputMap(0),
+                          /*forInputDiscovery=*/ false,
+                          /*outputs=*/ ImmutableSet.of(treeArtifact),
+                          helperExecutor);
+                  handler.getMetadata(treeArtifact);
+                  return handler.getOutputStore().getTreeArtifactData(treeArtifact);
+                }));
+      }
+      for (Future<TreeArtifactValue> tree : trees) {
+        assertThat(tree.get(1, MINUTES).getChildValues()).hasSize(numChildren);
+      }
+    } finally {
+      actionExecutor.shutdownNow();
+      helperExecutor.shutdownNow();
+    }
+  }
+
   @Test
   public void resettingOutputs() throws Exception {
     PathFragment path = PathFragment.create("foo/bar");
@@ -442,7 +579,8 @@ public final class ActionMetadataHandlerTest {
             ArtifactPathResolver.IDENTITY,
             execRoot.asFragment(),
             derivedPathPrefix,
-            expandedFilesets);
+            expandedFilesets,
+            ForkJoinPool.commonPool());
 
     // Only the regular FileArtifactValue should have its metadata stored.
     assertThat(handler.getMetadata(createInput("dir"))).isNull();
@@ -13,7 +13,13 @@
 // limitations under the License.
 package com.google.devtools.build.skyframe;
 
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.skyframe.QueryableGraph.Reason;
+import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
@@ -42,4 +48,15 @@ public class InMemoryGraphTest extends GraphTest {
   protected ProcessableGraph getGraph(Version version) {
     return graph;
   }
+
+  @Test
+  public void compactStopsWhenInterrupted() throws Exception {
+    InMemoryGraphImpl inMemoryGraph = new InMemoryGraphImpl();
+    inMemoryGraph.createIfAbsentBatch(null, Reason.OTHER, ImmutableList.of(key("cat")));
+
+    Thread.currentThread().interrupt();
+    assertThrows(InterruptedException.class, inMemoryGraph::compact);
+    assertThat(Thread.currentThread().isInterrupted()).isFalse();
+    assertThat(inMemoryGraph.compact()).isEqualTo(0L);
+  }
 }
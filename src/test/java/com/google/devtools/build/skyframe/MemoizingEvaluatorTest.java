@@ -50,6 +50,7 @@ import com.google.devtools.build.skyframe.GraphTester.NotComparableStringValue;
 import com.google.devtools.build.skyframe.GraphTester.StringValue;
 import com.google.devtools.build.skyframe.GraphTester.TestFunction;
 import com.google.devtools.build.skyframe.GraphTester.ValueComputer;
+import com.google.devtools.build.skyframe.MemoizingEvaluator.GraphTransformerForTesting;
 import com.google.devtools.build.skyframe.NotifyingHelper.EventType;
 import com.google.devtools.build.skyframe.NotifyingHelper.Listener;
 import com.google.devtools.build.skyframe.NotifyingHelper.Order;
@@ -223,6 +224,65 @@ public class MemoizingEvaluatorTest {
     tester.eval(true, new SkyKey[0]);
   }
 
+  @Test
+  public void compactGraphSkipsGraphNotEvaluatedSinceLastCompaction() throws Exception {
+    AtomicInteger graphCompactions = countGraphCompactions();
+
+    tester.evaluator.compactGraph();
+    assertThat(graphCompactions.get()).isEqualTo(0);
+
+    tester.set("x", new StringValue("y"));
+    tester.evalAndGet("x");
+    tester.evaluator.compactGraph();
+    tester.evaluator.compactGraph();
+    assertThat(graphCompactions.get()).isEqualTo(1);
+
+    tester.evalAndGet("x");
+    tester.evaluator.compactGraph();
+    assertThat(graphCompactions.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void compactGraphRetriesAfterInterruptedCompaction() throws Exception {
+    AtomicInteger graphCompactions = countGraphCompactions();
+    tester.set("x", new StringValue("y"));
+    tester.evalAndGet("x");
+
+    Thread.currentThread().interrupt();
+    assertThrows(InterruptedException.class, () -> tester.evaluator.compactGraph());
+    tester.evaluator.compactGraph();
+    assertThat(graphCompactions.get()).isEqualTo(2);
+  }
+
+  /** Replaces the empty graph with one that counts calls to {@link InMemoryGraph#compact}. */
+  private AtomicInteger countGraphCompactions() {
+    AtomicInteger graphCompactions = new AtomicInteger();
+    tester.evaluator.injectGraphTransformerForTesting(
+        new GraphTransformerForTesting() {
+          @Override
+          public InMemoryGraph transform(InMemoryGraph graph) {
+            return new InMemoryGraphImpl() {
+              @Override
+              public long compact() throws InterruptedException {
+                graphCompactions.incrementAndGet();
+                return super.compact();
+              }
+            };
+          }
+
+          @Override
+          public QueryableGraph transform(QueryableGraph graph) {
+            return graph;
+          }
+
+          @Override
+          public ProcessableGraph transform(ProcessableGraph graph) {
+            return graph;
+          }
+        });
+    return graphCompactions;
+  }
+
   @Test
   public void invalidationWithNothingChanged() throws Exception {
     tester.set("x", new StringValue("y")).setWarning("fizzlepop");
@@ -82,6 +82,24 @@ public class ReverseDepsUtilityTest {
     }
   }
 
+  @Test
+  public void compactConsolidatesPendingChecks() {
+    InMemoryNodeEntry example = new InMemoryNodeEntry();
+    List<SkyKey> toAdd = new ArrayList<>();
+    for (int j = 0; j < numElements; j++) {
+      toAdd.add(Key.create(j));
+    }
+    ReverseDepsUtility.addReverseDeps(example, toAdd);
+    if (numElements > 1) {
+      // Stays below the consolidation threshold, so the check is left pending.
+      ReverseDepsUtility.checkReverseDep(example, Key.create(0));
+    }
+    assertThat(ReverseDepsUtility.compact(example)).isEqualTo(numElements > 1 ? 1 : 0);
+    assertThat(example.getReverseDepsDataToConsolidateForReverseDepsUtil()).isNull();
+    assertThat(ReverseDepsUtility.getReverseDeps(example)).containsExactlyElementsIn(toAdd);
+    assertThat(ReverseDepsUtility.compact(example)).isEqualTo(0);
+  }
+
   @Test
   public void testDuplicateCheckOnGetReverseDeps() {
     InMemoryNodeEntry example = new InMemoryNodeEntry();